@@ -0,0 +1,56 @@
+package lava;
+import lava.control.Engine;
+import lava.control.Bundle;
+import lava.math.LavaMath;
+import java.io.IOException;
+
+/**
+* Aot translates a guest class ahead of time.  It loads the class, compiles every method the Jit can,
+* and writes the heap and the compiled classes to a bundle jar.  Then
+*	java lava.Lava -bundle Fibonacci.jar 10
+* runs it without loading or compiling anything.
+*/
+public class Aot {
+	public static void main(String[] args) throws IOException {
+		//options come before the classname
+		//	-jvm	use 32-bit ints instead of Lava's 27-bit numbers.  Run the bundle with -jvm too
+		//	-optimize	optimize the bytecode first, like Lava -optimize
+		//	-inline	inline small methods first, like Lava -inline
+		//	-concat	fuse StringBuilder chains first, like Lava -concat
+		//	-debug	log what the engine, loader and heap are doing
+		//the jar is classname.jar unless it is given after the classname
+		byte math = LavaMath.LAVA;
+		boolean debug = false;
+		boolean optimize = false;
+		boolean inline = false;
+		boolean concat = false;
+		int a=0;
+		while (a<args.length && args[a].startsWith("-")) {
+			if (args[a].equals("-jvm")) {
+				math = LavaMath.JVM;
+			} else if (args[a].equals("-optimize")) {
+				optimize = true;
+			} else if (args[a].equals("-inline")) {
+				inline = true;
+			} else if (args[a].equals("-concat")) {
+				concat = true;
+			} else if (args[a].equals("-debug")) {
+				debug = true;
+			} else {
+				System.out.println("unknown option "+args[a]);
+			}
+			a++;
+		}
+		if (a==args.length) {
+			System.out.println("usage: java lava.Aot [-jvm] [-optimize] [-inline] [-concat] [-debug] classname [jar]");
+			return;
+		}
+		String classname = args[a];
+		String jar = args.length>a+1 ? args[a+1] : classname+".jar";
+		Engine engine = new Engine(debug,math);
+		engine.setOptimize(optimize);
+		engine.setInline(inline);
+		engine.setConcat(concat);
+		Bundle.write(engine,classname,jar);
+	}
+}
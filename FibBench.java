@@ -0,0 +1,13 @@
+public class FibBench {
+	//no printing in fib, so the jit can compile it.  Try it with and without -jit
+	public static int fib(int n) {
+		if (n<2) return n;
+		return fib(n-1) + fib(n-2);
+	}
+
+	public static void main(String[] args) {
+		int n = Integer.parseInt(args[0]);
+		int result = fib(n);
+		System.out.println("The result is "+result);
+	}
+}
\ No newline at end of file
@@ -1,18 +1,120 @@
 package lava;
 import lava.control.Engine;
+import lava.control.Tiers;
+import lava.control.Bundle;
+import lava.type.Word;
+import lava.math.LavaMath;
 import java.io.IOException;
 
 public class Lava {
 	public final static int version=1;
 	public static void main(String[] args) throws IOException {
 		System.out.println("Lava version "+version);
-		String classname = args[0];
+		//options come before the classname
+		//	-jvm	use 32-bit ints instead of Lava's 27-bit numbers
+		//	-depth n	the max depth of the call stack
+		//	-tos	run the loop that caches the top of the stack
+		//	-decoded	run the loop that runs pre-decoded code
+		//	-nofuse	don't make superinstructions in the pre-decoded code
+		//	-register	run the loop that runs register code from the IR
+		//	-closures	run each method as an array of closures
+		//	-tiered	start in the switch loop and move hot methods and loops to the decoded loop
+		//	-invokes n	the calls it takes to promote a method in -tiered
+		//	-backedges n	the trips around a loop it takes to replace its frame in -tiered
+		//	-tiers	print each promotion
+		//	-jit	compile hot static methods to JVM classes
+		//	-optimize	fold constants, thread jumps and drop dead code as each method is loaded
+		//	-inline	copy small static, private and final methods into their callers as they are loaded
+		//	-concat	build a string in one go instead of with a StringBuilder, where the builder doesn't escape
+		//	-bundle file	run a bundle made by Aot.  There is no classname then, just the args
+		//	-profile	report the hottest pairs and triples of ops
+		//	-debug	log what the engine, loader and heap are doing
+		//	-trace	run the instrumented loop, which prints every op.  This turns on -debug too
+		byte math = LavaMath.LAVA;
+		int depth = Engine.MAX_DEPTH;
+		byte loop = Engine.LOOP_SWITCH;
+		boolean fuse = true;
+		boolean debug = false;
+		boolean jit = false;
+		boolean optimize = false;
+		boolean inline = false;
+		boolean concat = false;
+		int invokes = Tiers.INVOKE_THRESHOLD;
+		int backedges = Tiers.BACKEDGE_THRESHOLD;
+		boolean tiers = false;
+		String bundle = null;
+		int a=0;
+		while (a<args.length && args[a].startsWith("-")) {
+			if (args[a].equals("-jvm")) {
+				math = LavaMath.JVM;
+			} else if (args[a].equals("-tos")) {
+				loop = Engine.LOOP_TOS;
+			} else if (args[a].equals("-decoded")) {
+				loop = Engine.LOOP_DECODED;
+			} else if (args[a].equals("-register")) {
+				loop = Engine.LOOP_REGISTER;
+			} else if (args[a].equals("-closures")) {
+				loop = Engine.LOOP_CLOSURE;
+			} else if (args[a].equals("-nofuse")) {
+				fuse = false;
+			} else if (args[a].equals("-tiered")) {
+				loop = Engine.LOOP_TIERED;
+			} else if (args[a].equals("-invokes")) {
+				invokes = Integer.parseInt(args[++a]);
+			} else if (args[a].equals("-backedges")) {
+				backedges = Integer.parseInt(args[++a]);
+			} else if (args[a].equals("-tiers")) {
+				tiers = true;
+			} else if (args[a].equals("-bundle")) {
+				bundle = args[++a];
+			} else if (args[a].equals("-jit")) {
+				jit = true;
+			} else if (args[a].equals("-optimize")) {
+				optimize = true;
+			} else if (args[a].equals("-inline")) {
+				inline = true;
+			} else if (args[a].equals("-concat")) {
+				concat = true;
+			} else if (args[a].equals("-profile")) {
+				loop = Engine.LOOP_PROFILE;
+			} else if (args[a].equals("-debug")) {
+				debug = true;
+			} else if (args[a].equals("-trace")) {
+				loop = Engine.LOOP_TRACE;
+				debug = true;
+			} else if (args[a].equals("-depth")) {
+				depth = Integer.parseInt(args[++a]);
+			} else {
+				System.out.println("unknown option "+args[a]);
+			}
+			a++;
+		}
+		String classname = null;
+		if (bundle==null) classname = args[a++];
 		String[] args2=null;
-		if (args.length>1) {
-			args2 = new String[args.length-1];
-			System.arraycopy(args,1,args2,0,args2.length);
+		if (args.length>a) {
+			args2 = new String[args.length-a];
+			System.arraycopy(args,a,args2,0,args2.length);
+		}
+		Engine engine = new Engine(debug,math,depth);
+		engine.setLoop(loop);
+		engine.getDecoder().setFuse(fuse);
+		engine.setJit(jit);
+		engine.setOptimize(optimize);
+		engine.setInline(inline);
+		engine.setConcat(concat);
+		engine.getTiers().setInvokeThreshold(invokes);
+		engine.getTiers().setBackedgeThreshold(backedges);
+		if (tiers) {
+			engine.getTiers().setListener((mref,count,offset) -> {
+				if (offset<0) System.out.println("[tiers] promoted "+Word.toString(mref)+" after "+count+" calls");
+				else System.out.println("[tiers] replaced "+Word.toString(mref)+" at "+offset+" after "+count+" loops");
+			});
+		}
+		if (bundle!=null) {
+			engine.start(Bundle.read(engine,bundle), args2);
+		} else {
+			engine.start(classname, args2);
 		}
-		Engine engine = new Engine(true);
-		engine.start(classname, args2);
 	}
 }
\ No newline at end of file
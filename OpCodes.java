@@ -5,7 +5,7 @@ public interface OpCodes {
 	public final static byte NOP = (byte)0;
 
 	//Group 1: Logic
-	//public final static byte ISHL = (byte)0x78;			//120
+	public final static byte ISHL = (byte)0x78;			//120
 	//public final static byte ISHR = (byte)0x7A;			//122
 	//public final static byte IUSHR = (byte)0x7C;		//124
 	//public final static byte IAND = (byte)0x7E;			//126
@@ -25,11 +25,12 @@ public interface OpCodes {
 	public final static byte BIPUSH = (byte)0x10; 		//decimal 16
 	public final static byte SIPUSH = (byte)17;			//17
 	public final static byte LDC = (byte)0x12;			//14
-	//public final static byte POP = (byte)0x57;			//87
+	public final static byte POP = (byte)0x57;			//87
 	public final static byte ILOAD_0 = (byte)0x1A;		//26
 	public final static byte ILOAD_1 = (byte)27;		//27
 	public final static byte ILOAD_2 = (byte)28;		//28
 	public final static byte ILOAD_3 = (byte)29;		//29
+	public final static byte ILOAD = (byte)0x15;		//21
 	public final static byte ALOAD = (byte)0x19;		//42
 	public final static byte ALOAD_0 = (byte)0x2A;		//42
 	public final static byte ALOAD_1 = (byte)0x2B;
@@ -39,11 +40,13 @@ public interface OpCodes {
 	public final static byte ISTORE_1 = (byte)0x3C;		//60
 	public final static byte ISTORE_2 = (byte)0x3D;		//61
 	public final static byte ISTORE_3 = (byte)0x3E;		//62
+	public final static byte ISTORE = (byte)0x36;		//54
 	public final static byte ASTORE_0 = (byte)0x4B;		//75?
 	public final static byte ASTORE_1 = (byte)0x4C;
 	public final static byte ASTORE_2 = (byte)0x4D;
 	public final static byte ASTORE_3 = (byte)0x4E;
 	public final static byte ASTORE = (byte)0x3A;
+	public final static byte WIDE = (byte)0xC4;			//196
 	public final static byte GETSTATIC = (byte)0xB2;	//178
 	public final static byte GETFIELD = (byte)0xB4;	//178
 	public final static byte PUTSTATIC  = (byte)0xB3;	//179
@@ -100,4 +103,62 @@ public interface OpCodes {
 
 	//Group 6: other
 	public final static byte CHECKCAST = (byte)0xC0;
+	//not a JVM op, 0xCB is unused.  The Concatenator puts this where a StringBuilder chain was.
+	//The operand is a u2 with a 1 over the parts and a bit for each part that is an int
+	public final static byte CONCAT = (byte)0xCB;		//203
+
+	//Group 7: long and double
+	//these take 2 slots on the stack and in the locals.  The high int is first.
+	public final static byte DCONST_0 = (byte)0xE;		//14
+	public final static byte DCONST_1 = (byte)0xF;		//15
+	public final static byte LDC2_W = (byte)0x14;		//20
+	public final static byte LLOAD = (byte)0x16;		//22
+	public final static byte DLOAD = (byte)0x18;		//24
+	public final static byte LLOAD_0 = (byte)0x1E;		//30
+	public final static byte LLOAD_1 = (byte)0x1F;
+	public final static byte LLOAD_2 = (byte)0x20;
+	public final static byte LLOAD_3 = (byte)0x21;
+	public final static byte DLOAD_0 = (byte)0x26;		//38
+	public final static byte DLOAD_1 = (byte)0x27;
+	public final static byte DLOAD_2 = (byte)0x28;
+	public final static byte DLOAD_3 = (byte)0x29;
+	public final static byte LALOAD = (byte)0x2F;		//47
+	public final static byte DALOAD = (byte)0x31;		//49
+	public final static byte LSTORE = (byte)0x37;		//55
+	public final static byte DSTORE = (byte)0x39;		//57
+	public final static byte LSTORE_0 = (byte)0x3F;		//63
+	public final static byte LSTORE_1 = (byte)0x40;
+	public final static byte LSTORE_2 = (byte)0x41;
+	public final static byte LSTORE_3 = (byte)0x42;
+	public final static byte DSTORE_0 = (byte)0x47;		//71
+	public final static byte DSTORE_1 = (byte)0x48;
+	public final static byte DSTORE_2 = (byte)0x49;
+	public final static byte DSTORE_3 = (byte)0x4A;
+	public final static byte LASTORE = (byte)0x50;		//80
+	public final static byte DASTORE = (byte)0x52;		//82
+	public final static byte POP2 = (byte)0x58;			//88
+	public final static byte DUP2 = (byte)0x5C;			//92
+	public final static byte LADD = (byte)0x61;			//97
+	public final static byte DADD = (byte)0x63;			//99
+	public final static byte LSUB = (byte)0x65;			//101
+	public final static byte DSUB = (byte)0x67;			//103
+	public final static byte LMUL = (byte)0x69;			//105
+	public final static byte DMUL = (byte)0x6B;			//107
+	public final static byte LDIV = (byte)0x6D;			//109
+	public final static byte DDIV = (byte)0x6F;			//111
+	public final static byte LREM = (byte)0x71;			//113
+	public final static byte DREM = (byte)0x73;			//115
+	public final static byte LNEG = (byte)0x75;			//117
+	public final static byte DNEG = (byte)0x77;			//119
+	public final static byte I2L = (byte)0x85;			//133
+	public final static byte I2D = (byte)0x87;			//135
+	public final static byte L2I = (byte)0x88;			//136
+	public final static byte L2D = (byte)0x8A;			//138
+	public final static byte D2I = (byte)0x8E;			//142
+	public final static byte D2L = (byte)0x8F;			//143
+	public final static byte LCMP = (byte)0x94;			//148
+	public final static byte DCMPL = (byte)0x97;		//151
+	public final static byte DCMPG = (byte)0x98;		//152
+	public final static byte LRETURN = (byte)0xAD;		//173
+	public final static byte DRETURN = (byte)0xAF;		//175
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+package lava.control;
+import lava.type.Word;
+import java.io.*;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+* A Bundle is a guest class that has been loaded and compiled ahead of time, in a jar.  It has
+*	lava/image				the heap right after the class was loaded, and the class ref
+*	lava/jit/M(mref).class	the Jit's class for each method that could be compiled
+*
+* Running from a bundle puts the heap back and loads the compiled classes, so there is no parsing,
+* no linking and no warm-up.  The refs in the heap and in the compiled code are the same ones the
+* translator had, since the heap is the same.
+*/
+public class Bundle {
+	public final static String IMAGE = "lava/image";
+	public final static int MAGIC = 0x4c415641;	//LAVA
+
+	//load the class, compile what can be compiled and write it all to the jar
+	public static void write(Engine e,String className,String jarFile) throws IOException {
+		Word cref = e.cloader.getClass(className);
+		if (e.jit==null) e.setJit(true);
+		int[] mrefs = e.jit.compileAll(cref);
+
+		JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarFile));
+		try {
+			jar.putNextEntry(new JarEntry(IMAGE));
+			DataOutputStream out = new DataOutputStream(jar);
+			out.writeInt(MAGIC);
+			out.writeInt(e.acc.getShift());
+			out.writeUTF(className);
+			out.writeInt(cref.toInt());
+			e.heap.save(out);
+			out.flush();
+			jar.closeEntry();
+			for (int i=0;i<mrefs.length;i++) {
+				jar.putNextEntry(new JarEntry(entry(mrefs[i])));
+				jar.write(e.jit.classFile(mrefs[i]));
+				jar.closeEntry();
+			}
+		} finally {
+			jar.close();
+		}
+		System.out.println("wrote "+className+" to "+jarFile+" with "+mrefs.length+" compiled methods");
+	}
+
+	//put the bundle's heap and compiled classes into the engine.  This returns the class ref to start
+	public static Word read(Engine e,String jarFile) throws IOException {
+		JarFile jar = new JarFile(jarFile);
+		try {
+			JarEntry image = jar.getJarEntry(IMAGE);
+			if (image==null) throw new IllegalArgumentException(jarFile+" isn't a lava bundle");
+			DataInputStream in = new DataInputStream(jar.getInputStream(image));
+			if (in.readInt()!=MAGIC) throw new IllegalArgumentException(jarFile+" isn't a lava bundle");
+			//the math is compiled into the classes
+			int shift = in.readInt();
+			if (shift!=e.acc.getShift()) {
+				throw new IllegalStateException(jarFile+" was made for the other math mode, see -jvm");
+			}
+			String className = in.readUTF();
+			Word cref = new Word(in.readInt());
+			e.heap.restore(in);
+
+			if (e.jit==null) e.setJit(true);
+			int n = 0;
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry je = entries.nextElement();
+				String name = je.getName();
+				if (!name.startsWith("lava/jit/M") || !name.endsWith(".class")) continue;
+				int mref = Integer.parseUnsignedInt(name.substring(10,name.length()-6),16);
+				byte[] b = new byte[(int)je.getSize()];
+				new DataInputStream(jar.getInputStream(je)).readFully(b);
+				try {
+					e.jit.define(mref,b);
+				} catch (ReflectiveOperationException x) {
+					throw new IllegalStateException("can't load "+name+" from "+jarFile,x);
+				}
+				n++;
+			}
+			if (e.debug) e.log("read "+className+" from "+jarFile+" with "+n+" compiled methods");
+			return cref;
+		} finally {
+			jar.close();
+		}
+	}
+
+	static String entry(int mref) {
+		return Jit.className(mref).replace('.','/')+".class";
+	}
+}
@@ -0,0 +1,168 @@
+package lava.control;
+import lava.storage.IntMap;
+import lava.type.Word;
+import lava.OpCodes;
+
+/**
+* Closures compiles a method into an array of closures, one for each instruction.  Each closure has its
+* operands and its branch target already bound, and runs the Engine's handler for its op, so the loop
+* that runs them is just pc=c[pc].run(f) and there is no switch at all.
+*
+* It starts from the Decoder's form of the method, without superinstructions, since that already has
+* the operands put together and the branch targets resolved.  The decoded targets are then mapped to
+* closure indexes.
+*
+* A closure returns the index of the next closure to run.  Calls and returns switch frames, so those
+* return SWITCH and the loop picks up the new frame and its pc.  A call saves the pc to come back to
+* in the frame first.
+*
+* A method is compiled the first time it is called and then kept, keyed by its method ref.
+*/
+public class Closures implements OpCodes {
+	public interface Closure {
+		int run(Frame f);
+	}
+
+	//what a closure returns when the running frame changed
+	public final static int SWITCH = -1;
+
+	Engine engine;
+	IntMap slots = new IntMap();
+	Closure[][] compiled = new Closure[16][];
+	int count;
+	boolean debug;
+
+	public Closures(Engine e,boolean debug) {
+		this.engine=e;
+		this.debug=debug;
+	}
+
+	public void log(String s) {
+		if (debug) System.out.println("[Closures] "+s);
+	}
+
+	//get the closures for a method, compiling it if this is the first time
+	public Closure[] get(int imref) {
+		int slot = slots.get(imref);
+		if (slot>0) return compiled[slot-1];
+		Closure[] c = compile(Decoder.decode(engine.heap.loadMethod(imref),false));
+		if (count==compiled.length) {
+			Closure[][] bigger = new Closure[count*2][];
+			System.arraycopy(compiled,0,bigger,0,count);
+			compiled=bigger;
+		}
+		compiled[count++]=c;
+		slots.put(imref,count);
+		if (debug) log("compiled "+Word.toString(imref)+" into "+c.length+" closures");
+		return c;
+	}
+
+	//first find which closure each decoded instruction becomes, then make them
+	public Closure[] compile(int[] code) {
+		int[] at = new int[code.length+1];
+		int n = 0;
+		for (int pc=0;pc<code.length;pc=pc+1+Decoder.operands((byte)code[pc])) {
+			at[pc]=n++;
+		}
+
+		Closure[] c = new Closure[n];
+		n=0;
+		for (int pc=0;pc<code.length;pc=pc+1+Decoder.operands((byte)code[pc])) {
+			byte op = (byte)code[pc];
+			int x = Decoder.operands(op)>0 ? code[pc+1] : 0;
+			if (Decoder.isBranch(op)) x=at[x];
+			c[n]=closure(op,x,code[pc+Decoder.operands(op)],n+1);
+			n++;
+		}
+		return c;
+	}
+
+	//x is the first operand, or the target for a branch, and y is the last operand, which only iinc uses.
+	//next is the index of the closure after this one
+	Closure closure(byte op,final int x,final int y,final int next) {
+		final Engine e = engine;
+		switch (op) {
+			case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+			case ICONST_3: case ICONST_4: case ICONST_5:
+				final int k = op-ICONST_0;
+				return f -> {f.PUSH(k); return next;};
+			case BIPUSH: case SIPUSH: return f -> {f.PUSH(x); return next;};
+			case LDC: return f -> {e.ldc(x); return next;};
+			case DUP: return f -> {e.dup(); return next;};
+			case POP: return f -> {f.POP(); return next;};
+
+			//math
+			case IADD: return f -> {e.iadd(); return next;};
+			case ISUB: return f -> {e.isub(); return next;};
+			case IMUL: return f -> {e.imul(); return next;};
+			case IDIV: return f -> {e.idiv(); return next;};
+			case IREM: return f -> {e.irem(); return next;};
+			case INEG: return f -> {e.ineg(); return next;};
+			case ISHL: return f -> {e.ishl(); return next;};
+			case IINC: return f -> {e.iinc(x,y); return next;};
+
+			//transfer data
+			case ILOAD_0: case ILOAD_1: case ILOAD_2: case ILOAD_3:
+				final int il = op-ILOAD_0;
+				return f -> {f.PUSH(f.load(il)); return next;};
+			case ILOAD: return f -> {f.PUSH(f.load(x)); return next;};
+			case ALOAD_0: case ALOAD_1: case ALOAD_2: case ALOAD_3:
+				final int al = op-ALOAD_0;
+				return f -> {e.aload(al); return next;};
+			case ALOAD: return f -> {e.aload(x); return next;};
+			case ISTORE_0: case ISTORE_1: case ISTORE_2: case ISTORE_3:
+				final int is = op-ISTORE_0;
+				return f -> {f.store(is,f.POP()); return next;};
+			case ISTORE: return f -> {f.store(x,f.POP()); return next;};
+			case ASTORE_0: case ASTORE_1: case ASTORE_2: case ASTORE_3:
+				final int as = op-ASTORE_0;
+				return f -> {e.astore(as); return next;};
+			case ASTORE: return f -> {e.astore(x); return next;};
+
+			case GETSTATIC: return f -> {e.getStatic(x); return next;};
+			case GETFIELD: return f -> {e.getField(x); return next;};
+			case PUTSTATIC: return f -> {e.putStatic(x); return next;};
+			case PUTFIELD: return f -> {e.putField(x); return next;};
+
+			//arrays
+			case IALOAD: return f -> {e.iaload(); return next;};
+			case IASTORE: return f -> {e.iastore(); return next;};
+			case AALOAD: return f -> {e.aaload(); return next;};
+			case AASTORE: return f -> {e.aastore(); return next;};
+			case ARRAYLENGTH: return f -> {e.arraylength(); return next;};
+			case ANEWARRAY: return f -> {e.anewarray(x); return next;};
+			case NEWARRAY: return f -> {e.newarray((byte)x); return next;};
+			case NEWOBJ: return f -> {e.newobj(x); return next;};
+
+			//control flow.  x is the target
+			case JMP: return f -> x;
+			case IF_ICMPEQ: return f -> {int v2=f.POP(); return f.POP()==v2 ? x : next;};
+			case IF_ICMPNE: return f -> {int v2=f.POP(); return f.POP()!=v2 ? x : next;};
+			case IF_ICMPLT: return f -> {int v2=f.POP(); return f.POP()<v2 ? x : next;};
+			case IF_ICMPGE: return f -> {int v2=f.POP(); return f.POP()>=v2 ? x : next;};
+			case IF_ICMPGT: return f -> {int v2=f.POP(); return f.POP()>v2 ? x : next;};
+			case IF_ICMPLE: return f -> {int v2=f.POP(); return f.POP()<=v2 ? x : next;};
+			case IFEQ: return f -> f.POP()==0 ? x : next;
+			case IFNE: return f -> f.POP()!=0 ? x : next;
+			case IFLT: return f -> f.POP()<0 ? x : next;
+			case IFGE: return f -> f.POP()>=0 ? x : next;
+			case IFGT: return f -> f.POP()>0 ? x : next;
+			case IFLE: return f -> f.POP()<=0 ? x : next;
+			case IFNULL: return f -> Word.index(f.POP())==0 ? x : next;
+
+			//subroutines.  These switch frames
+			case RETURNV: return f -> {e.returnv(); return SWITCH;};
+			case IRETURN: return f -> {e.ireturn(); return SWITCH;};
+			case ARETURN: return f -> {e.areturn(); return SWITCH;};
+			case LRETURN: case DRETURN: return f -> {e.lreturn(); return SWITCH;};
+			case INVOKESTATIC: return f -> {f.pc=next; e.invoke_static(x); return SWITCH;};
+			case INVOKEVIRTUAL: return f -> {f.pc=next; e.invoke_virtual(x); return SWITCH;};
+			case INVOKESPECIAL: return f -> {f.pc=next; e.invoke_special(x); return SWITCH;};
+
+			default:
+				//checkcast, long and double, and anything the engine doesn't know
+				final int dop = op;
+				return f -> {e.execDecoded(dop,x); return next;};
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package lava.control;
+import lava.storage.Heap;
+import lava.storage.IntMap;
+import lava.type.Word;
+import lava.math.Compare;
+import lava.OpCodes;
+
+/**
+* The Decoder translates a method's bytecode into the form that the decoded loop runs.  Each instruction
+* is an int for the op followed by ints for its operands, which are already put together:
+*	local indexes, constants and pool indexes are plain ints, with no sign extension to undo
+*	branch targets are absolute indexes into the decoded code, so a jump is just pc=target
+*	wide is folded into the op it modifies
+*	some common sequences are fused into one superinstruction, see below
+*
+* A method is decoded the first time it is called and then kept, keyed by its method ref.
+*/
+public class Decoder implements OpCodes {
+	Heap heap;
+	//the method ref -> the slot in decoded, plus 1 because 0 means it isn't there
+	IntMap slots = new IntMap();
+	int[][] decoded = new int[16][];
+	int count;
+	//make superinstructions when decoding
+	boolean fuse = true;
+	boolean debug;
+
+	public Decoder(Heap h,boolean debug) {
+		this.heap=h;
+		this.debug=debug;
+	}
+
+	public void setFuse(boolean fuse) {
+		this.fuse=fuse;
+	}
+
+	public void log(String s) {
+		if (debug) System.out.println("[Decoder] "+s);
+	}
+
+	//get the decoded code for a method, decoding it if this is the first time
+	public int[] get(int imref) {
+		int slot = slots.get(imref);
+		if (slot>0) return decoded[slot-1];
+		int[] code = decode(heap.loadMethod(imref),fuse);
+		if (count==decoded.length) {
+			int[][] bigger = new int[count*2][];
+			System.arraycopy(decoded,0,bigger,0,count);
+			decoded=bigger;
+		}
+		decoded[count++]=code;
+		slots.put(imref,count);
+		if (debug) log("decoded "+Word.toString(imref)+" into "+code.length+" ints");
+		return code;
+	}
+
+	//the number of operand ints an op has once it is decoded
+	public static int operands(byte op) {
+		switch (op) {
+			case IINC:
+				return 2;
+			case BIPUSH: case SIPUSH: case LDC: case LDC2_W:
+			case ILOAD: case ISTORE: case ALOAD: case ASTORE:
+			case LLOAD: case LSTORE: case DLOAD: case DSTORE:
+			case GETSTATIC: case GETFIELD: case PUTSTATIC: case PUTFIELD:
+			case ANEWARRAY: case NEWARRAY: case NEWOBJ: case CHECKCAST: case CONCAT:
+			case INVOKESTATIC: case INVOKEVIRTUAL: case INVOKESPECIAL:
+				return 1;
+			default:
+				return isBranch(op) ? 1 : 0;
+		}
+	}
+
+	public static boolean isBranch(byte op) {
+		switch (op) {
+			case JMP:
+			case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE: case IF_ICMPGT: case IF_ICMPLE:
+			case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE: case IFNULL:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	//the number of bytes the instruction at pc takes in the bytecode
+	public static int length(byte[] b,int pc) {
+		byte op = b[pc];
+		if (op==WIDE) {
+			return b[pc+1]==IINC ? 6 : 4;
+		}
+		switch (op) {
+			case BIPUSH: case LDC: case NEWARRAY:
+			case ILOAD: case ISTORE: case ALOAD: case ASTORE:
+			case LLOAD: case LSTORE: case DLOAD: case DSTORE:
+				return 2;
+			case SIPUSH: case LDC2_W: case IINC:
+			case GETSTATIC: case GETFIELD: case PUTSTATIC: case PUTFIELD:
+			case ANEWARRAY: case NEWOBJ: case CHECKCAST: case CONCAT:
+			case INVOKESTATIC: case INVOKEVIRTUAL: case INVOKESPECIAL:
+				return 3;
+			default:
+				//an op the engine doesn't know is taken to have no operands, like the byte loop does
+				return isBranch(op) ? 3 : 1;
+		}
+	}
+
+	public static int u1(byte[] b,int i) {
+		return b[i] & 0xff;
+	}
+
+	public static int u2(byte[] b,int i) {
+		return (b[i] & 0xff) << 8 | (b[i+1] & 0xff);
+	}
+
+	//a signed short, for sipush, branch offsets and wide iinc
+	public static int s2(byte[] b,int i) {
+		return b[i] << 8 | (b[i+1] & 0xff);
+	}
+
+	//------------------------------------------
+	//superinstructions.  These are past 255 so they can't be mistaken for a bytecode.
+	//Each one replaces a sequence that javac emits a lot, and the comment is its operands
+	public final static int ILOAD_ILOAD_IF = 0x100;				//a b tst target
+	public final static int ILOAD_CONST_IADD_ISTORE = 0x101;	//a k b
+	public final static int ALOAD_0_GETFIELD = 0x102;			//idx
+	public final static int IINC_JMP = 0x103;					//a k target
+
+	public static int superOperands(int sop) {
+		switch (sop) {
+			case ILOAD_ILOAD_IF: return 4;
+			case ILOAD_CONST_IADD_ISTORE: return 3;
+			case IINC_JMP: return 3;
+			default: return 1;
+		}
+	}
+
+	//how many instructions a superinstruction replaces
+	public static int superCount(int sop) {
+		switch (sop) {
+			case ILOAD_ILOAD_IF: return 3;
+			case ILOAD_CONST_IADD_ISTORE: return 4;
+			default: return 2;
+		}
+	}
+
+	//the local an int load reads, or -1 if it isn't one
+	static int iload(byte[] b,int pc) {
+		byte op = b[pc];
+		if (op>=ILOAD_0 && op<=ILOAD_3) return op-ILOAD_0;
+		if (op==ILOAD) return u1(b,pc+1);
+		return -1;
+	}
+
+	static int istore(byte[] b,int pc) {
+		byte op = b[pc];
+		if (op>=ISTORE_0 && op<=ISTORE_3) return op-ISTORE_0;
+		if (op==ISTORE) return u1(b,pc+1);
+		return -1;
+	}
+
+	static boolean isConst(byte[] b,int pc) {
+		byte op = b[pc];
+		return (op>=ICONST_M1 && op<=ICONST_5) || op==BIPUSH || op==SIPUSH;
+	}
+
+	static int constant(byte[] b,int pc) {
+		byte op = b[pc];
+		if (op==BIPUSH) return b[pc+1];
+		if (op==SIPUSH) return s2(b,pc+1);
+		return op-ICONST_0;
+	}
+
+	//the Compare code that an if_icmp op tests for, or 0 if it isn't one
+	static byte test(byte op) {
+		switch (op) {
+			case IF_ICMPEQ: return Compare.EQ;
+			case IF_ICMPNE: return Compare.NE;
+			case IF_ICMPLT: return Compare.LT;
+			case IF_ICMPGE: return Compare.GTE;
+			case IF_ICMPGT: return Compare.GT;
+			case IF_ICMPLE: return Compare.LTE;
+			default: return 0;
+		}
+	}
+
+	//which instructions are jumped to.  Nothing can be fused across one of these
+	public static boolean[] targets(byte[] b) {
+		boolean[] t = new boolean[b.length];
+		for (int pc=0;pc<b.length;pc=pc+length(b,pc)) {
+			if (isBranch(b[pc])) t[pc+s2(b,pc+1)]=true;
+		}
+		return t;
+	}
+
+	//find the superinstruction that starts at pc, or 0 if there isn't one
+	static int match(byte[] b,int pc,boolean[] t) {
+		int p1 = pc+length(b,pc);
+		if (p1>=b.length || t[p1]) return 0;
+		if (b[pc]==ALOAD_0 && b[p1]==GETFIELD) return ALOAD_0_GETFIELD;
+		if (b[pc]==IINC && b[p1]==JMP) return IINC_JMP;
+		if (iload(b,pc)<0) return 0;
+		int p2 = p1+length(b,p1);
+		if (p2>=b.length || t[p2]) return 0;
+		if (iload(b,p1)>=0 && test(b[p2])!=0) return ILOAD_ILOAD_IF;
+		int p3 = p2+length(b,p2);
+		if (p3>=b.length || t[p3]) return 0;
+		if (isConst(b,p1) && b[p2]==IADD && istore(b,p3)>=0) return ILOAD_CONST_IADD_ISTORE;
+		return 0;
+	}
+
+	//where each instruction starts in the decoded code, and at[b.length] is how long the decoded code is.
+	//This also fills in which superinstruction starts at each pc
+	static int[] positions(byte[] b,boolean[] t,int[] sops,boolean fuse) {
+		int[] at = new int[b.length+1];
+		int n = 0;
+		int pc = 0;
+		while (pc<b.length) {
+			at[pc]=n;
+			int sop = fuse ? match(b,pc,t) : 0;
+			sops[pc]=sop;
+			if (sop!=0) {
+				n = n + 1 + superOperands(sop);
+				for (int i=0;i<superCount(sop);i++) pc=pc+length(b,pc);
+			} else {
+				byte op = b[pc]==WIDE ? b[pc+1] : b[pc];
+				n = n + 1 + operands(op);
+				pc=pc+length(b,pc);
+			}
+		}
+		at[b.length]=n;
+		return at;
+	}
+
+	//where the instruction at offset in a method's bytecode is in its decoded code.  This is for on-stack
+	//replacement, which always happens at a branch target, so it is never inside a superinstruction
+	public int position(int imref,int offset) {
+		byte[] b = heap.loadMethod(imref);
+		return positions(b,targets(b),new int[b.length],fuse)[offset];
+	}
+
+	//first find where each instruction goes, so the branch targets can be resolved, then write it out.
+	//If fuse is on, the sequences above are replaced by their superinstructions
+	public static int[] decode(byte[] b,boolean fuse) {
+		boolean[] t = targets(b);
+		int[] sops = new int[b.length];
+		int[] at = positions(b,t,sops,fuse);
+
+		int[] code = new int[at[b.length]];
+		int n = 0;
+		int pc = 0;
+		while (pc<b.length) {
+			int sop = sops[pc];
+			if (sop!=0) {
+				code[n++]=sop;
+				int p1 = pc+length(b,pc);
+				int p2 = p1+length(b,p1);
+				switch (sop) {
+					case ILOAD_ILOAD_IF:
+						code[n++]=iload(b,pc);
+						code[n++]=iload(b,p1);
+						code[n++]=test(b[p2]);
+						code[n++]=at[p2+s2(b,p2+1)];
+						break;
+					case ILOAD_CONST_IADD_ISTORE:
+						code[n++]=iload(b,pc);
+						code[n++]=constant(b,p1);
+						code[n++]=istore(b,p2+length(b,p2));
+						break;
+					case ALOAD_0_GETFIELD:
+						code[n++]=u2(b,p1+1);
+						break;
+					case IINC_JMP:
+						code[n++]=u1(b,pc+1);
+						code[n++]=b[pc+2];
+						code[n++]=at[p1+s2(b,p1+1)];
+						break;
+				}
+				for (int i=0;i<superCount(sop);i++) pc=pc+length(b,pc);
+				continue;
+			}
+			byte op = b[pc];
+			if (op==WIDE) {
+				op = b[pc+1];
+				code[n++]=op;
+				code[n++]=u2(b,pc+2);
+				if (op==IINC) code[n++]=s2(b,pc+4);
+				pc=pc+length(b,pc);
+				continue;
+			}
+			code[n++]=op;
+			switch (op) {
+				case BIPUSH: code[n++]=b[pc+1]; break;
+				case SIPUSH: code[n++]=s2(b,pc+1); break;
+				case IINC: code[n++]=u1(b,pc+1); code[n++]=b[pc+2]; break;
+				default:
+					if (isBranch(op)) {
+						code[n++]=at[pc+s2(b,pc+1)];
+					} else if (length(b,pc)==2) {
+						code[n++]=u1(b,pc+1);
+					} else if (length(b,pc)==3) {
+						code[n++]=u2(b,pc+1);
+					}
+			}
+			pc=pc+length(b,pc);
+		}
+		return code;
+	}
+}
@@ -1,12 +1,13 @@
 package lava.control;
 import lava.storage.Heap;
+import lava.storage.IntMap;
 import lava.math.LavaMath;
+import lava.math.Accumulator;
 import lava.math.Compare;
 import lava.math.Numero;
 import lava.type.Word;
 import lava.loader.ClassLoader;
 import lava.OpCodes;
-import java.util.Stack;
 import java.io.IOException;
 
 public class Engine implements OpCodes {
@@ -19,19 +20,107 @@ public class Engine implements OpCodes {
 	public final static String SB_APPEND_I="java/lang/StringBuilder.append:(I)Ljava/lang/StringBuilder;";
 	public final static String SB_TOSTR="java/lang/StringBuilder.toString:()Ljava/lang/String;";
 	public final static String OBJ_INIT="java/lang/Object.<init>:()V";
+	public final static String PRINTLN_J="java/io/PrintStream.println:(J)V";
+	public final static String PRINTLN_D="java/io/PrintStream.println:(D)V";
+
+	//the native codes.  An external method ref is matched against the names above only once,
+	//and then its code is kept in the natives map
+	final static int NATIVE_UNKNOWN = -1;
+	final static int NATIVE_PRINTLN = 1;
+	final static int NATIVE_PARSEINT = 2;
+	final static int NATIVE_PRINTLN_I = 3;
+	final static int NATIVE_SB_INIT = 4;
+	final static int NATIVE_SB_APPEND_STR = 5;
+	final static int NATIVE_SB_APPEND_I = 6;
+	final static int NATIVE_SB_TOSTR = 7;
+	final static int NATIVE_OBJ_INIT = 8;
+	final static int NATIVE_PRINTLN_J = 9;
+	final static int NATIVE_PRINTLN_D = 10;
 
 	Heap heap;
 	ClassLoader cloader;
-	Stack frameStack;
+	//the call stack.  frames[depth] is the running frame.  The frame at each depth is made once and reused
+	Frame[] frames;
+	int depth;
 	Frame frame;
+	//the value stack.  Every frame's locals and operands are in here
+	int[] stack;
+	public final static int STACK_SIZE = 65536;
+	public final static int MAX_DEPTH = 1024;
+	//which interpreter loop runs the code
+	public final static byte LOOP_SWITCH = 0;	//one switch, every op goes through the frame's stack
+	public final static byte LOOP_TOS = 1;		//the top of the stack is cached in a local
+	public final static byte LOOP_DECODED = 2;	//runs the Decoder's form of each method
+	public final static byte LOOP_PROFILE = 3;	//the same as LOOP_SWITCH, but it reports the hottest op sequences
+	public final static byte LOOP_TRACE = 4;	//the same as LOOP_SWITCH, but it prints every op as it runs
+	public final static byte LOOP_REGISTER = 5;	//runs the IR's register form of each method
+	public final static byte LOOP_CLOSURE = 6;	//runs each method as an array of closures
+	public final static byte LOOP_TIERED = 7;	//starts with LOOP_SWITCH and moves hot code to LOOP_DECODED
+	byte loop = LOOP_SWITCH;
+	Decoder decoder;
+	IR ir;
+	Closures closures;
+	Tiers tiers;
+	//compiles hot static methods.  This is null unless it is turned on
+	Jit jit;
+	//external method ref -> native code
+	IntMap natives=new IntMap();
 	boolean debug;
 	boolean running=false;
+	//this does the arithmetic in the Engine's math mode
+	Accumulator acc;
 
 	public Engine(boolean debug) {
+		this(debug,LavaMath.LAVA);
+	}
+
+	//math is LavaMath.LAVA (27 bits plus sign) or LavaMath.JVM (32 bits)
+	public Engine(boolean debug,byte math) {
+		this(debug,math,MAX_DEPTH);
+	}
+
+	//maxDepth is how deep the calls can go
+	public Engine(boolean debug,byte math,int maxDepth) {
+		if (maxDepth<1) throw new IllegalArgumentException("invalid max depth "+maxDepth);
 		heap=new Heap(debug);
 		cloader=new ClassLoader(heap,debug);
-		frameStack=new Stack();
+		frames=new Frame[maxDepth];
+		decoder=new Decoder(heap,debug);
+		ir=new IR(heap,debug);
+		closures=new Closures(this,debug);
+		tiers=new Tiers(decoder,debug);
+		stack=new int[STACK_SIZE];
 		this.debug=debug;
+		acc=new Accumulator(math);
+	}
+
+	public void setLoop(byte loop) {
+		this.loop=loop;
+	}
+
+	public Decoder getDecoder() {return decoder;}
+	public Tiers getTiers() {return tiers;}
+
+	//compile hot static methods to JVM classes, whichever loop is running
+	public void setJit(boolean on) {
+		jit = on ? new Jit(heap,acc.getShift(),debug) : null;
+	}
+
+	public Jit getJit() {return jit;}
+
+	//optimize each method's bytecode as it is loaded
+	public void setOptimize(boolean on) {
+		cloader.setOptimize(on);
+	}
+
+	//copy small methods into their callers as each class is loaded
+	public void setInline(boolean on) {
+		cloader.setInline(on);
+	}
+
+	//turn StringBuilder chains that don't escape into CONCAT as each class is loaded
+	public void setConcat(boolean on) {
+		cloader.setConcat(on);
 	}
 
 	public void log(String s) {
@@ -42,80 +131,347 @@ public class Engine implements OpCodes {
 		return frame.NEXT();
 	}
 
-	public void PUSH(Word w) {
+	//the stack holds the packed ints, so nothing is created to push a value
+	public void PUSH(int w) {
 		frame.PUSH(w);
 	}
 
-	public Word POP() {
+	public int POP() {
 		return frame.POP();
 	}
 
+	//a long or double takes 2 slots.  The high int is pushed first, then the low int
+	public void PUSH2(long v) {
+		frame.PUSH((int)(v>>>32));
+		frame.PUSH((int)v);
+	}
+
+	public long POP2() {
+		long lo = frame.POP() & 0xFFFFFFFFL;
+		long hi = frame.POP();
+		return (hi<<32) | lo;
+	}
+
+	//a double is kept as its bits
+	public void PUSHD(double d) {
+		PUSH2(Double.doubleToRawLongBits(d));
+	}
+
+	public double POPD() {
+		return Double.longBitsToDouble(POP2());
+	}
+
 	//start the engine with a class that has a main method.
 	//don't include the .class extension
 	public void start(String className,String[] args) throws IOException {
-		log("loading "+className);
-		Word cref = cloader.getClass(className);
+		if (debug) log("loading "+className);
+		start(cloader.getClass(className),args);
+	}
+
+	//start a class that is already in the heap, like one from a Bundle
+	public void start(Word cref,String[] args) {
 		//create a main frame
-		log("cref = "+cref.toString());
-		MainFrame mf = new MainFrame(heap,cref,debug);
+		if (debug) log("cref = "+cref.toString());
+		MainFrame mf = new MainFrame(heap,cref,stack,debug);
 		mf.passMainParams(args);
+		frames[0]=mf;
+		depth=0;
 		frame=mf;
 		//run
 		running=true;
-		run();
+		if (loop==LOOP_TOS) {
+			runTOS();
+		} else if (loop==LOOP_DECODED) {
+			mf.code=decoder.get(mf.getMethodRef());
+			runDecoded();
+		} else if (loop==LOOP_PROFILE) {
+			runProfile();
+		} else if (loop==LOOP_TRACE) {
+			runTrace();
+		} else if (loop==LOOP_REGISTER) {
+			mf.code=ir.get(mf.getMethodRef(),cref);
+			runRegister();
+		} else if (loop==LOOP_CLOSURE) {
+			mf.closures=closures.get(mf.getMethodRef());
+			runClosures();
+		} else if (loop==LOOP_TIERED) {
+			//main only runs once, so it starts in the bytes and can only move up by replacement
+			runTiered();
+		} else {
+			run();
+		}
 	}
 
 	public void run() {
-		byte op = (byte)0;
-		byte index1= (byte)0;
-		byte index2=(byte)0;
-
 		while (running) {
 			//fetch the next byte
+			exec(frame.NEXT());
+		}
+	}
+
+	//the instrumented loop.  This prints every op with the call depth, where it is in the method and
+	//the stack depth before it runs.  The other loops don't have any of this, so they pay nothing for it
+	public void runTrace() {
+		byte op;
+		int mp;
+		while (running) {
+			mp = frame.mp;
+			op = frame.NEXT();
+			System.out.println("[trace] "+depth+" "+mp+": "+Profiler.name(op)+" stack="+frame.getStackSize());
+			exec(op);
+		}
+	}
+
+	//the tiered loop.  Each frame runs in the baseline loop until it has decoded code, see Tiers.
+	//runDecoded returns when it gets to a frame that doesn't have any
+	public void runTiered() {
+		while (running) {
+			if (frame.code==null) runBaseline();
+			else runDecoded();
+		}
+	}
+
+	//this is run with counters.  A jump back is seen as mp going down in the same frame, and when a loop
+	//gets hot the frame is switched to decoded code right there and this returns
+	public void runBaseline() {
+		Frame f;
+		int mp;
+		while (running) {
+			f = frame;
+			if (f.code!=null) return;
+			mp = f.mp;
+			exec(f.NEXT());
+			if (frame==f && f.mp<mp) {
+				int[] c = tiers.backedge(f.mref,f.base+f.mp,f.mp);
+				if (c!=null) {
+					f.pc=decoder.position(f.mref,f.mp);
+					f.code=c;
+				}
+			}
+		}
+	}
+
+	//this counts every pair and triple of ops that run one after the other, and prints the hottest
+	//ones at the end.  Those are the ones to make into superinstructions in the Decoder
+	public void runProfile() {
+		Profiler p = new Profiler();
+		byte op;
+		while (running) {
 			op = frame.NEXT();
+			p.count(op);
+			exec(op);
+		}
+		p.report(10);
+	}
+
+	//run one op.  The op has been fetched but its operands haven't
+	public void exec(byte op) {
+		byte index1= (byte)0;
+		byte index2=(byte)0;
+
+		switch(op) {
+			//load numbers on to stack
+			case BIPUSH: index1=NEXT(); bipush(index1); break;
+			case SIPUSH: index1=NEXT(); index2=NEXT(); sipush(index1,index2); break;
+			case LDC: index1=NEXT(); ldc(index1); break;
+			case ICONST_M1: PUSH(-1); break;
+			case ICONST_0: PUSH(0); break;
+			case ICONST_1: PUSH(1); break;
+			case ICONST_2: PUSH(2); break;
+			case ICONST_3: PUSH(3); break;
+			case ICONST_4: PUSH(4); break;
+			case ICONST_5: PUSH(5); break;
+			case DUP: dup(); break;
+			case POP: POP(); break;
+
+			//math
+			case IADD: iadd(); break;
+			case IINC: index1=NEXT(); index2=NEXT(); iinc(index1 & 0xff,index2); break;
+			case ISUB: isub(); break;
+			case IMUL: imul(); break;
+			case IDIV: idiv(); break;
+			case IREM: irem(); break;
+			case INEG: ineg(); break;
+			case ISHL: ishl(); break;
+
+			//transfer data
+			//load an int value from local variable 0
+			case ILOAD_0: PUSH( frame.load(0) ); break;
+			case ILOAD_1: PUSH( frame.load(1) ); break;
+			case ILOAD_2: PUSH( frame.load(2) ); break;
+			case ILOAD_3: PUSH( frame.load(3) ); break;
+			case ILOAD: index1=NEXT(); PUSH( frame.load(index1 & 0xff) ); break;
+			case ALOAD_0: aload(0); break;
+			case ALOAD_1: aload(1); break;
+			case ALOAD_2: aload(2); break;
+			case ALOAD_3: aload(3); break;
+			case ALOAD: index1=NEXT(); aload_n(index1); break;
+			case ISTORE_0: frame.store(0,POP()); break;
+			case ISTORE_1: frame.store(1,POP()); break;
+			case ISTORE_2: frame.store(2,POP()); break;
+			case ISTORE_3: frame.store(3,POP()); break;
+			case ISTORE: index1=NEXT(); frame.store(index1 & 0xff,POP()); break;
+			case ASTORE_0: astore(0); break;
+			case ASTORE_1: astore(1); break;
+			case ASTORE_2: astore(2); break;
+			case ASTORE_3: astore(3); break;
+			case ASTORE: index1=NEXT(); astore_n(index1); break;
+			case WIDE: wide(); break;
+
+			case GETSTATIC: index1=NEXT(); index2=NEXT(); getStatic(index1,index2); break;
+			case GETFIELD: index1=NEXT(); index2=NEXT(); getField(index1,index2); break;
+			case PUTSTATIC: index1=NEXT(); index2=NEXT(); putStatic(index1,index2); break;
+			case PUTFIELD: index1=NEXT(); index2=NEXT(); putField(index1,index2); break;
+
+			//arrays
+			case IALOAD: iaload(); break;
+			case IASTORE: iastore(); break;
+			case AALOAD: aaload(); break;
+			case AASTORE: aastore(); break;
+			case ARRAYLENGTH: arraylength(); break;
+			case ANEWARRAY: index1=NEXT(); index2=NEXT(); anewarray(index1,index2); break;
+			case NEWARRAY: index1=NEXT(); newarray(index1); break;
+			case NEWOBJ: index1=NEXT(); index2=NEXT(); newobj(index1,index2); break;
+
+			//control flow
+			case JMP: index1=NEXT(); index2=NEXT(); jmp(index1,index2); break;
+			case IF_ICMPEQ: index1=NEXT(); index2=NEXT(); if_icmpeq(index1,index2); break;
+			case IF_ICMPGE: index1=NEXT(); index2=NEXT(); if_icmpge(index1,index2); break;
+			case IF_ICMPGT: index1=NEXT(); index2=NEXT(); if_icmpgt(index1,index2); break;
+			case IF_ICMPLE: index1=NEXT(); index2=NEXT(); if_icmple(index1,index2); break;
+			case IF_ICMPLT: index1=NEXT(); index2=NEXT(); if_icmplt(index1,index2); break;
+			case IF_ICMPNE: index1=NEXT(); index2=NEXT(); if_icmpne(index1,index2); break;
+			case IFEQ: index1=NEXT(); index2=NEXT(); ifeq(index1,index2); break;
+			case IFGE: index1=NEXT(); index2=NEXT(); ifge(index1,index2); break;
+			case IFGT: index1=NEXT(); index2=NEXT(); ifgt(index1,index2); break;
+			case IFLE: index1=NEXT(); index2=NEXT(); ifle(index1,index2); break;
+			case IFLT: index1=NEXT(); index2=NEXT(); iflt(index1,index2); break;
+			case IFNE: index1=NEXT(); index2=NEXT(); ifne(index1,index2); break;
+			case IFNULL: index1=NEXT(); index2=NEXT(); ifnull(index1,index2); break;
+
+			//subroutines
+			case RETURNV: returnv(); break;
+			case IRETURN: ireturn(); break;
+			case ARETURN: areturn(); break;
+			case INVOKESTATIC:  index1=NEXT(); index2=NEXT(); invoke_static(index1,index2); break;
+			case INVOKEVIRTUAL:  index1=NEXT(); index2=NEXT(); invoke_virtual(index1,index2); break;
+			case INVOKESPECIAL:  index1=NEXT(); index2=NEXT(); invoke_special(index1,index2); break;
+
+			//other
+			case CHECKCAST: index1=NEXT(); index2=NEXT(); checkcast(index1,index2); break;
+			case CONCAT: index1=NEXT(); index2=NEXT(); concat(index1,index2); break;
+
+			//long and double
+			case LCONST_0: PUSH2(0L); break;
+			case LCONST_1: PUSH2(1L); break;
+			case DCONST_0: PUSHD(0.0); break;
+			case DCONST_1: PUSHD(1.0); break;
+			case LDC2_W: index1=NEXT(); index2=NEXT(); ldc2_w(index1,index2); break;
+			case LLOAD_0: case DLOAD_0: PUSH2( frame.load2(0) ); break;
+			case LLOAD_1: case DLOAD_1: PUSH2( frame.load2(1) ); break;
+			case LLOAD_2: case DLOAD_2: PUSH2( frame.load2(2) ); break;
+			case LLOAD_3: case DLOAD_3: PUSH2( frame.load2(3) ); break;
+			case LLOAD: case DLOAD: index1=NEXT(); PUSH2( frame.load2(index1 & 0xff) ); break;
+			case LSTORE_0: case DSTORE_0: frame.store2(0,POP2()); break;
+			case LSTORE_1: case DSTORE_1: frame.store2(1,POP2()); break;
+			case LSTORE_2: case DSTORE_2: frame.store2(2,POP2()); break;
+			case LSTORE_3: case DSTORE_3: frame.store2(3,POP2()); break;
+			case LSTORE: case DSTORE: index1=NEXT(); frame.store2(index1 & 0xff,POP2()); break;
+			case LALOAD: case DALOAD: laload(); break;
+			case LASTORE: case DASTORE: lastore(); break;
+			case POP2: POP(); POP(); break;
+			case DUP2: dup2(); break;
+			case LADD: ladd(); break;
+			case LSUB: lsub(); break;
+			case LMUL: lmul(); break;
+			case LDIV: ldiv(); break;
+			case LREM: lrem(); break;
+			case LNEG: PUSH2(-POP2()); break;
+			case LCMP: lcmp(); break;
+			case DADD: dadd(); break;
+			case DSUB: dsub(); break;
+			case DMUL: dmul(); break;
+			case DDIV: ddiv(); break;
+			case DREM: drem(); break;
+			case DNEG: PUSHD(-POPD()); break;
+			case DCMPL: dcmp(-1); break;
+			case DCMPG: dcmp(1); break;
+			case I2L: PUSH2( (long)POP() ); break;
+			case I2D: PUSHD( (double)POP() ); break;
+			case L2I: l2i(); break;
+			case L2D: PUSHD( (double)POP2() ); break;
+			case D2I: d2i(); break;
+			case D2L: PUSH2( (long)POPD() ); break;
+			case LRETURN: case DRETURN: lreturn(); break;
+
+			default:
+				System.out.println("unknown op "+op+" ("+Integer.toHexString(op)+")");
+		}
+	}
 
+	//this runs the Decoder's form of the code.  The operands are already put together and a branch
+	//target is an index into the code, so nothing is read from the heap or sign extended here.
+	//pc is kept in a local and saved to the frame around anything that can switch frames
+	public void runDecoded() {
+		Frame f = frame;
+		int[] c = f.code;
+		int pc = f.pc;
+		int op;
+		int v1;
+		int v2;
+
+		while (running) {
+			op = c[pc++];
 			switch(op) {
 				//load numbers on to stack
-				case BIPUSH: index1=NEXT(); bipush(index1); break;
-				case SIPUSH: index1=NEXT(); index2=NEXT(); sipush(index1,index2); break;
-				case LDC: index1=NEXT(); ldc(index1); break;
-				case ICONST_M1: PUSH(new Numero(-1)); break;
-				case ICONST_0: PUSH(new Numero(0)); break;
-				case ICONST_1: PUSH(new Numero(1)); break;
-				case ICONST_2: PUSH(new Numero(2)); break;
-				case ICONST_3: PUSH(new Numero(3)); break;
-				case ICONST_4: PUSH(new Numero(4)); break;
-				case ICONST_5: PUSH(new Numero(5)); break;
+				case BIPUSH: case SIPUSH: PUSH(c[pc++]); break;
+				case LDC: ldc(c[pc++]); break;
+				case ICONST_M1: PUSH(-1); break;
+				case ICONST_0: PUSH(0); break;
+				case ICONST_1: PUSH(1); break;
+				case ICONST_2: PUSH(2); break;
+				case ICONST_3: PUSH(3); break;
+				case ICONST_4: PUSH(4); break;
+				case ICONST_5: PUSH(5); break;
 				case DUP: dup(); break;
+				case POP: POP(); break;
 
 				//math
 				case IADD: iadd(); break;
-				case IINC: index1=NEXT(); index2=NEXT(); iinc(index1,index2); break;
+				case IINC: iinc(c[pc],c[pc+1]); pc=pc+2; break;
 				case ISUB: isub(); break;
+				case IMUL: imul(); break;
+				case IDIV: idiv(); break;
+				case IREM: irem(); break;
+				case INEG: ineg(); break;
+				case ISHL: ishl(); break;
 
 				//transfer data
-				//load an int value from local variable 0
-				case ILOAD_0: PUSH( frame.load(0) ); break;
-				case ILOAD_1: PUSH( frame.load(1) ); break;
-				case ILOAD_2: PUSH( frame.load(2) ); break;
+				case ILOAD_0: PUSH( f.load(0) ); break;
+				case ILOAD_1: PUSH( f.load(1) ); break;
+				case ILOAD_2: PUSH( f.load(2) ); break;
+				case ILOAD_3: PUSH( f.load(3) ); break;
+				case ILOAD: PUSH( f.load(c[pc++]) ); break;
 				case ALOAD_0: aload(0); break;
 				case ALOAD_1: aload(1); break;
 				case ALOAD_2: aload(2); break;
 				case ALOAD_3: aload(3); break;
-				case ALOAD: index1=NEXT(); aload_n(index1); break;
-				case ISTORE_0: frame.store(0,POP()); break;
-				case ISTORE_1: frame.store(1,POP()); break;
-				case ISTORE_2: frame.store(2,POP()); break;
+				case ALOAD: aload(c[pc++]); break;
+				case ISTORE_0: f.store(0,POP()); break;
+				case ISTORE_1: f.store(1,POP()); break;
+				case ISTORE_2: f.store(2,POP()); break;
+				case ISTORE_3: f.store(3,POP()); break;
+				case ISTORE: f.store(c[pc++],POP()); break;
 				case ASTORE_0: astore(0); break;
 				case ASTORE_1: astore(1); break;
 				case ASTORE_2: astore(2); break;
 				case ASTORE_3: astore(3); break;
-				case ASTORE: index1=NEXT(); astore_n(index1); break;
+				case ASTORE: astore(c[pc++]); break;
 
-				case GETSTATIC: index1=NEXT(); index2=NEXT(); getStatic(index1,index2); break;
-				case GETFIELD: index1=NEXT(); index2=NEXT(); getField(index1,index2); break;
-				case PUTSTATIC: index1=NEXT(); index2=NEXT(); putStatic(index1,index2); break;
-				case PUTFIELD: index1=NEXT(); index2=NEXT(); putField(index1,index2); break;
+				case GETSTATIC: getStatic(c[pc++]); break;
+				case GETFIELD: getField(c[pc++]); break;
+				case PUTSTATIC: putStatic(c[pc++]); break;
+				case PUTFIELD: putField(c[pc++]); break;
 
 				//arrays
 				case IALOAD: iaload(); break;
@@ -123,36 +479,96 @@ public class Engine implements OpCodes {
 				case AALOAD: aaload(); break;
 				case AASTORE: aastore(); break;
 				case ARRAYLENGTH: arraylength(); break;
-				case ANEWARRAY: index1=NEXT(); index2=NEXT(); anewarray(index1,index2); break;
-				case NEWARRAY: index1=NEXT(); newarray(index1); break;
-				case NEWOBJ: index1=NEXT(); index2=NEXT(); newobj(index1,index2); break;
-
-				//control flow
-				case JMP: index1=NEXT(); index2=NEXT(); jmp(index1,index2); break;
-				case IF_ICMPEQ: index1=NEXT(); index2=NEXT(); if_icmpeq(index1,index2); break;
-				case IF_ICMPGE: index1=NEXT(); index2=NEXT(); if_icmpge(index1,index2); break;
-				case IF_ICMPGT: index1=NEXT(); index2=NEXT(); if_icmpgt(index1,index2); break;
-				case IF_ICMPLE: index1=NEXT(); index2=NEXT(); if_icmple(index1,index2); break;
-				case IF_ICMPLT: index1=NEXT(); index2=NEXT(); if_icmplt(index1,index2); break;
-				case IF_ICMPNE: index1=NEXT(); index2=NEXT(); if_icmpne(index1,index2); break;
-				case IFEQ: index1=NEXT(); index2=NEXT(); ifeq(index1,index2); break;
-				case IFGE: index1=NEXT(); index2=NEXT(); ifge(index1,index2); break;
-				case IFGT: index1=NEXT(); index2=NEXT(); ifgt(index1,index2); break;
-				case IFLE: index1=NEXT(); index2=NEXT(); ifle(index1,index2); break;
-				case IFLT: index1=NEXT(); index2=NEXT(); iflt(index1,index2); break;
-				case IFNE: index1=NEXT(); index2=NEXT(); ifne(index1,index2); break;
-				case IFNULL: index1=NEXT(); index2=NEXT(); ifnull(index1,index2); break;
-
-				//subroutines
-				case RETURNV: returnv(); break;
-				case IRETURN: ireturn(); break;
-				case ARETURN: areturn(); break;
-				case INVOKESTATIC:  index1=NEXT(); index2=NEXT(); invoke_static(index1,index2); break;
-				case INVOKEVIRTUAL:  index1=NEXT(); index2=NEXT(); invoke_virtual(index1,index2); break;
-				case INVOKESPECIAL:  index1=NEXT(); index2=NEXT(); invoke_special(index1,index2); break;
+				case ANEWARRAY: anewarray(c[pc++]); break;
+				case NEWARRAY: newarray((byte)c[pc++]); break;
+				case NEWOBJ: newobj(c[pc++]); break;
+
+				//control flow.  The operand is the target
+				case JMP: pc=c[pc]; break;
+				case IF_ICMPEQ: v2=POP(); v1=POP(); pc = v1==v2 ? c[pc] : pc+1; break;
+				case IF_ICMPNE: v2=POP(); v1=POP(); pc = v1!=v2 ? c[pc] : pc+1; break;
+				case IF_ICMPLT: v2=POP(); v1=POP(); pc = v1<v2 ? c[pc] : pc+1; break;
+				case IF_ICMPGE: v2=POP(); v1=POP(); pc = v1>=v2 ? c[pc] : pc+1; break;
+				case IF_ICMPGT: v2=POP(); v1=POP(); pc = v1>v2 ? c[pc] : pc+1; break;
+				case IF_ICMPLE: v2=POP(); v1=POP(); pc = v1<=v2 ? c[pc] : pc+1; break;
+				case IFEQ: pc = POP()==0 ? c[pc] : pc+1; break;
+				case IFNE: pc = POP()!=0 ? c[pc] : pc+1; break;
+				case IFLT: pc = POP()<0 ? c[pc] : pc+1; break;
+				case IFGE: pc = POP()>=0 ? c[pc] : pc+1; break;
+				case IFGT: pc = POP()>0 ? c[pc] : pc+1; break;
+				case IFLE: pc = POP()<=0 ? c[pc] : pc+1; break;
+				case IFNULL: pc = Word.index(POP())==0 ? c[pc] : pc+1; break;
+
+				//subroutines.  These can switch frames, so save pc first and then pick up the new frame.
+				//In the tiered loop the new frame might not have decoded code, and then the bytes run it
+				case RETURNV: f.pc=pc; returnv(); f=frame; c=f.code; pc=f.pc; if (c==null) return; break;
+				case IRETURN: f.pc=pc; ireturn(); f=frame; c=f.code; pc=f.pc; if (c==null) return; break;
+				case ARETURN: f.pc=pc; areturn(); f=frame; c=f.code; pc=f.pc; if (c==null) return; break;
+				case LRETURN: case DRETURN: f.pc=pc; lreturn(); f=frame; c=f.code; pc=f.pc; if (c==null) return; break;
+				case INVOKESTATIC: f.pc=pc+1; invoke_static(c[pc]); f=frame; c=f.code; pc=f.pc; if (c==null) return; break;
+				case INVOKEVIRTUAL: f.pc=pc+1; invoke_virtual(c[pc]); f=frame; c=f.code; pc=f.pc; if (c==null) return; break;
+				case INVOKESPECIAL: f.pc=pc+1; invoke_special(c[pc]); f=frame; c=f.code; pc=f.pc; if (c==null) return; break;
 
 				//other
-				case CHECKCAST: index1=NEXT(); index2=NEXT(); checkcast(index1,index2); break;
+				case CHECKCAST: checkcast(c[pc++]); break;
+				case CONCAT: concat(c[pc++]); break;
+
+				//long and double
+				case LCONST_0: PUSH2(0L); break;
+				case LCONST_1: PUSH2(1L); break;
+				case DCONST_0: PUSHD(0.0); break;
+				case DCONST_1: PUSHD(1.0); break;
+				case LDC2_W: ldc2_w(c[pc++]); break;
+				case LLOAD_0: case DLOAD_0: PUSH2( f.load2(0) ); break;
+				case LLOAD_1: case DLOAD_1: PUSH2( f.load2(1) ); break;
+				case LLOAD_2: case DLOAD_2: PUSH2( f.load2(2) ); break;
+				case LLOAD_3: case DLOAD_3: PUSH2( f.load2(3) ); break;
+				case LLOAD: case DLOAD: PUSH2( f.load2(c[pc++]) ); break;
+				case LSTORE_0: case DSTORE_0: f.store2(0,POP2()); break;
+				case LSTORE_1: case DSTORE_1: f.store2(1,POP2()); break;
+				case LSTORE_2: case DSTORE_2: f.store2(2,POP2()); break;
+				case LSTORE_3: case DSTORE_3: f.store2(3,POP2()); break;
+				case LSTORE: case DSTORE: f.store2(c[pc++],POP2()); break;
+				case LALOAD: case DALOAD: laload(); break;
+				case LASTORE: case DASTORE: lastore(); break;
+				case POP2: POP(); POP(); break;
+				case DUP2: dup2(); break;
+				case LADD: ladd(); break;
+				case LSUB: lsub(); break;
+				case LMUL: lmul(); break;
+				case LDIV: ldiv(); break;
+				case LREM: lrem(); break;
+				case LNEG: PUSH2(-POP2()); break;
+				case LCMP: lcmp(); break;
+				case DADD: dadd(); break;
+				case DSUB: dsub(); break;
+				case DMUL: dmul(); break;
+				case DDIV: ddiv(); break;
+				case DREM: drem(); break;
+				case DNEG: PUSHD(-POPD()); break;
+				case DCMPL: dcmp(-1); break;
+				case DCMPG: dcmp(1); break;
+				case I2L: PUSH2( (long)POP() ); break;
+				case I2D: PUSHD( (double)POP() ); break;
+				case L2I: l2i(); break;
+				case L2D: PUSHD( (double)POP2() ); break;
+				case D2I: d2i(); break;
+				case D2L: PUSH2( (long)POPD() ); break;
+
+				//superinstructions
+				case Decoder.ILOAD_ILOAD_IF:
+					v1=f.load(c[pc]);
+					v2=f.load(c[pc+1]);
+					pc = Compare.TST(Compare.CMP(v1,v2),(byte)c[pc+2])>0 ? c[pc+3] : pc+4;
+					break;
+				case Decoder.ILOAD_CONST_IADD_ISTORE:
+					acc.set(f.load(c[pc]));
+					acc.ADD(c[pc+1]);
+					f.store(c[pc+2],acc.get());
+					pc=pc+3;
+					break;
+				case Decoder.ALOAD_0_GETFIELD: PUSH( f.getField(f.load(0),c[pc++]) ); break;
+				case Decoder.IINC_JMP: iinc(c[pc],c[pc+1]); pc=c[pc+2]; break;
 
 				default:
 					System.out.println("unknown op "+op+" ("+Integer.toHexString(op)+")");
@@ -160,34 +576,269 @@ public class Engine implements OpCodes {
 		}
 	}
 
+	//this runs the closures that Closures made for each method.  Each one does its own op and says
+	//which one is next, so there is nothing to dispatch on here
+	public void runClosures() {
+		Frame f = frame;
+		Closures.Closure[] c = f.closures;
+		int pc = f.pc;
+		while (running) {
+			pc = c[pc].run(f);
+			if (pc==Closures.SWITCH) {
+				f=frame;
+				c=f.closures;
+				pc=f.pc;
+			}
+		}
+	}
+
+	//this runs the IR's register form of each method.  Most ops read and write the frame's slots in
+	//the value stack directly, without pushing or popping.  EXEC runs a bytecode op the old way: it
+	//puts the frame's sp where the translator said the top of the stack is, and calls execDecoded
+	public void runRegister() {
+		int shift = acc.getShift();
+		int[] s = stack;
+		Frame f = frame;
+		int[] c = f.code;
+		int pc = f.pc;
+		int bp = f.bp;
+
+		while (running) {
+			switch(c[pc]) {
+				case IR.MOV: s[bp+c[pc+1]]=s[bp+c[pc+2]]; pc=pc+4; break;
+				case IR.CONST: s[bp+c[pc+1]]=c[pc+2]; pc=pc+4; break;
+				case IR.ADD: s[bp+c[pc+1]]=LavaMath.ADD(s[bp+c[pc+2]],s[bp+c[pc+3]],shift); pc=pc+4; break;
+				case IR.SUB: s[bp+c[pc+1]]=LavaMath.SUB(s[bp+c[pc+2]],s[bp+c[pc+3]],shift); pc=pc+4; break;
+				case IR.MUL: s[bp+c[pc+1]]=LavaMath.MUL(s[bp+c[pc+2]],s[bp+c[pc+3]],shift); pc=pc+4; break;
+				case IR.DIV: s[bp+c[pc+1]]=LavaMath.DIV(s[bp+c[pc+2]],s[bp+c[pc+3]],shift); pc=pc+4; break;
+				case IR.REM: s[bp+c[pc+1]]=LavaMath.REM(s[bp+c[pc+2]],s[bp+c[pc+3]],shift); pc=pc+4; break;
+				case IR.NEG: s[bp+c[pc+1]]=LavaMath.NEG(s[bp+c[pc+2]],shift); pc=pc+4; break;
+				case IR.SHL: s[bp+c[pc+1]]=LavaMath.SHL(s[bp+c[pc+2]],s[bp+c[pc+3]],shift); pc=pc+4; break;
+				case IR.ADDI: s[bp+c[pc+1]]=LavaMath.ADD(s[bp+c[pc+2]],c[pc+3],shift); pc=pc+4; break;
+
+				//branches.  The target is already an index into c
+				case IR.BEQ: pc = s[bp+c[pc+1]]==s[bp+c[pc+2]] ? c[pc+3] : pc+4; break;
+				case IR.BNE: pc = s[bp+c[pc+1]]!=s[bp+c[pc+2]] ? c[pc+3] : pc+4; break;
+				case IR.BLT: pc = s[bp+c[pc+1]]<s[bp+c[pc+2]] ? c[pc+3] : pc+4; break;
+				case IR.BGE: pc = s[bp+c[pc+1]]>=s[bp+c[pc+2]] ? c[pc+3] : pc+4; break;
+				case IR.BGT: pc = s[bp+c[pc+1]]>s[bp+c[pc+2]] ? c[pc+3] : pc+4; break;
+				case IR.BLE: pc = s[bp+c[pc+1]]<=s[bp+c[pc+2]] ? c[pc+3] : pc+4; break;
+				case IR.BEQZ: pc = s[bp+c[pc+1]]==0 ? c[pc+3] : pc+4; break;
+				case IR.BNEZ: pc = s[bp+c[pc+1]]!=0 ? c[pc+3] : pc+4; break;
+				case IR.BLTZ: pc = s[bp+c[pc+1]]<0 ? c[pc+3] : pc+4; break;
+				case IR.BGEZ: pc = s[bp+c[pc+1]]>=0 ? c[pc+3] : pc+4; break;
+				case IR.BGTZ: pc = s[bp+c[pc+1]]>0 ? c[pc+3] : pc+4; break;
+				case IR.BLEZ: pc = s[bp+c[pc+1]]<=0 ? c[pc+3] : pc+4; break;
+				case IR.BNULL: pc = Word.index(s[bp+c[pc+1]])==0 ? c[pc+3] : pc+4; break;
+				case IR.GOTO: pc=c[pc+3]; break;
+
+				//arrays and fields
+				case IR.LOADX: s[bp+c[pc+1]]=heap.arrayLoad(s[bp+c[pc+2]],s[bp+c[pc+3]]); pc=pc+4; break;
+				case IR.STOREX: heap.arrayStore(s[bp+c[pc+1]],s[bp+c[pc+2]],s[bp+c[pc+3]]); pc=pc+4; break;
+				case IR.GETF: s[bp+c[pc+1]]=f.getField(s[bp+c[pc+2]],c[pc+3]); pc=pc+4; break;
+				case IR.PUTF: f.putField(s[bp+c[pc+1]],c[pc+2],s[bp+c[pc+3]]); pc=pc+4; break;
+
+				//everything else, including calls and returns, which can switch frames
+				case IR.EXEC:
+					f.sp=bp+c[pc+3];
+					f.pc=pc+4;
+					execDecoded(c[pc+1],c[pc+2]);
+					f=frame;
+					c=f.code;
+					pc=f.pc;
+					bp=f.bp;
+					break;
+
+				default:
+					System.out.println("unknown register op "+c[pc]);
+					pc=pc+4;
+			}
+		}
+	}
+
+	//run one op with its operand already decoded.  This is what EXEC does in the register loop
+	public void execDecoded(int op,int x) {
+		switch(op) {
+			case ISHL: ishl(); break;
+			case POP: POP(); break;
+			case LDC: ldc(x); break;
+			case GETSTATIC: getStatic(x); break;
+			case PUTSTATIC: putStatic(x); break;
+			case AALOAD: aaload(); break;
+			case AASTORE: aastore(); break;
+			case ARRAYLENGTH: arraylength(); break;
+			case ANEWARRAY: anewarray(x); break;
+			case NEWARRAY: newarray((byte)x); break;
+			case NEWOBJ: newobj(x); break;
+			case CHECKCAST: checkcast(x); break;
+			case CONCAT: concat(x); break;
+
+			case RETURNV: returnv(); break;
+			case IRETURN: ireturn(); break;
+			case ARETURN: areturn(); break;
+			case LRETURN: case DRETURN: lreturn(); break;
+			case INVOKESTATIC: invoke_static(x); break;
+			case INVOKEVIRTUAL: invoke_virtual(x); break;
+			case INVOKESPECIAL: invoke_special(x); break;
+
+			//long and double.  For the loads and stores x is the local
+			case LCONST_0: PUSH2(0L); break;
+			case LCONST_1: PUSH2(1L); break;
+			case DCONST_0: PUSHD(0.0); break;
+			case DCONST_1: PUSHD(1.0); break;
+			case LDC2_W: ldc2_w(x); break;
+			case LLOAD_0: case DLOAD_0: PUSH2( frame.load2(0) ); break;
+			case LLOAD_1: case DLOAD_1: PUSH2( frame.load2(1) ); break;
+			case LLOAD_2: case DLOAD_2: PUSH2( frame.load2(2) ); break;
+			case LLOAD_3: case DLOAD_3: PUSH2( frame.load2(3) ); break;
+			case LLOAD: case DLOAD: PUSH2( frame.load2(x) ); break;
+			case LSTORE_0: case DSTORE_0: frame.store2(0,POP2()); break;
+			case LSTORE_1: case DSTORE_1: frame.store2(1,POP2()); break;
+			case LSTORE_2: case DSTORE_2: frame.store2(2,POP2()); break;
+			case LSTORE_3: case DSTORE_3: frame.store2(3,POP2()); break;
+			case LSTORE: case DSTORE: frame.store2(x,POP2()); break;
+			case LALOAD: case DALOAD: laload(); break;
+			case LASTORE: case DASTORE: lastore(); break;
+			case POP2: POP(); POP(); break;
+			case DUP2: dup2(); break;
+			case LADD: ladd(); break;
+			case LSUB: lsub(); break;
+			case LMUL: lmul(); break;
+			case LDIV: ldiv(); break;
+			case LREM: lrem(); break;
+			case LNEG: PUSH2(-POP2()); break;
+			case LCMP: lcmp(); break;
+			case DADD: dadd(); break;
+			case DSUB: dsub(); break;
+			case DMUL: dmul(); break;
+			case DDIV: ddiv(); break;
+			case DREM: drem(); break;
+			case DNEG: PUSHD(-POPD()); break;
+			case DCMPL: dcmp(-1); break;
+			case DCMPG: dcmp(1); break;
+			case I2L: PUSH2( (long)POP() ); break;
+			case I2D: PUSHD( (double)POP() ); break;
+			case L2I: l2i(); break;
+			case L2D: PUSHD( (double)POP2() ); break;
+			case D2I: d2i(); break;
+			case D2L: PUSH2( (long)POPD() ); break;
+
+			default:
+				System.out.println("unknown op "+op+" ("+Integer.toHexString(op)+")");
+		}
+	}
+
+	//this is the same as run, but the top of the stack is kept in tos and the frame's stack only has
+	//what is under it.  So a chain like iload, iload, iadd, istore only reads and writes the locals.
+	//An empty stack still has something in tos, which goes in the frame's scratch slot when it is spilled.
+	//Ops that aren't here spill tos, run through exec, and then reload it, so calls, returns and
+	//everything else work the same as in run.  This doesn't log the ops
+	public void runTOS() {
+		int shift = acc.getShift();
+		int[] s = stack;
+		Frame f = frame;
+		int sp = f.sp;
+		int tos = s[--sp];
+		byte op;
+		byte index1;
+		byte index2;
+		int v;
+
+		while (running) {
+			op = f.NEXT();
+			switch(op) {
+				case ICONST_M1: s[sp++]=tos; tos=-1; break;
+				case ICONST_0: s[sp++]=tos; tos=0; break;
+				case ICONST_1: s[sp++]=tos; tos=1; break;
+				case ICONST_2: s[sp++]=tos; tos=2; break;
+				case ICONST_3: s[sp++]=tos; tos=3; break;
+				case ICONST_4: s[sp++]=tos; tos=4; break;
+				case ICONST_5: s[sp++]=tos; tos=5; break;
+				case BIPUSH: index1=f.NEXT(); s[sp++]=tos; tos=index1; break;
+				case SIPUSH: index1=f.NEXT(); index2=f.NEXT(); s[sp++]=tos; tos=index1 * 256 + (index2 & 0xff); break;
+				case DUP: s[sp++]=tos; break;
+				case POP: tos=s[--sp]; break;
+
+				case ILOAD_0: s[sp++]=tos; tos=s[f.bp]; break;
+				case ILOAD_1: s[sp++]=tos; tos=s[f.bp+1]; break;
+				case ILOAD_2: s[sp++]=tos; tos=s[f.bp+2]; break;
+				case ILOAD_3: s[sp++]=tos; tos=s[f.bp+3]; break;
+				case ILOAD: index1=f.NEXT(); s[sp++]=tos; tos=s[f.bp+(index1 & 0xff)]; break;
+				case ISTORE_0: s[f.bp]=tos; tos=s[--sp]; break;
+				case ISTORE_1: s[f.bp+1]=tos; tos=s[--sp]; break;
+				case ISTORE_2: s[f.bp+2]=tos; tos=s[--sp]; break;
+				case ISTORE_3: s[f.bp+3]=tos; tos=s[--sp]; break;
+				case ISTORE: index1=f.NEXT(); s[f.bp+(index1 & 0xff)]=tos; tos=s[--sp]; break;
+				case IINC: index1=f.NEXT(); index2=f.NEXT(); v=f.bp+(index1 & 0xff); s[v]=LavaMath.ADD(s[v],index2,shift); break;
+
+				//value1 is in memory and value2 is in tos
+				case IADD: tos=LavaMath.ADD(s[--sp],tos,shift); break;
+				case ISUB: tos=LavaMath.SUB(s[--sp],tos,shift); break;
+				case IMUL: tos=LavaMath.MUL(s[--sp],tos,shift); break;
+				case IDIV: tos=LavaMath.DIV(s[--sp],tos,shift); break;
+				case IREM: tos=LavaMath.REM(s[--sp],tos,shift); break;
+				case INEG: tos=LavaMath.NEG(tos,shift); break;
+				case ISHL: tos=LavaMath.SHL(s[--sp],tos,shift); break;
+
+				case IALOAD: v=s[--sp]; tos=heap.arrayLoad(v,tos); break;
+				case IASTORE: v=s[--sp]; heap.arrayStore(s[--sp],v,tos); tos=s[--sp]; break;
+
+				//compare and then reload tos before jumping
+				case JMP: index1=f.NEXT(); index2=f.NEXT(); f.JMP(offset(index1,index2)); break;
+				case IF_ICMPEQ: index1=f.NEXT(); index2=f.NEXT(); v=s[--sp]; if (v==tos) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IF_ICMPNE: index1=f.NEXT(); index2=f.NEXT(); v=s[--sp]; if (v!=tos) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IF_ICMPLT: index1=f.NEXT(); index2=f.NEXT(); v=s[--sp]; if (v<tos) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IF_ICMPGE: index1=f.NEXT(); index2=f.NEXT(); v=s[--sp]; if (v>=tos) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IF_ICMPGT: index1=f.NEXT(); index2=f.NEXT(); v=s[--sp]; if (v>tos) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IF_ICMPLE: index1=f.NEXT(); index2=f.NEXT(); v=s[--sp]; if (v<=tos) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IFEQ: index1=f.NEXT(); index2=f.NEXT(); if (tos==0) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IFNE: index1=f.NEXT(); index2=f.NEXT(); if (tos!=0) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IFLT: index1=f.NEXT(); index2=f.NEXT(); if (tos<0) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IFGE: index1=f.NEXT(); index2=f.NEXT(); if (tos>=0) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IFGT: index1=f.NEXT(); index2=f.NEXT(); if (tos>0) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+				case IFLE: index1=f.NEXT(); index2=f.NEXT(); if (tos<=0) f.JMP(offset(index1,index2)); tos=s[--sp]; break;
+
+				//everything else goes through the frame.  It might switch frames
+				default:
+					s[sp++]=tos;
+					f.sp=sp;
+					exec(op);
+					f=frame;
+					sp=f.sp;
+					tos=s[--sp];
+			}
+		}
+	}
+
 	//push a byte on to the stack
 	//test this with negative numbers
 	public void bipush(byte index) {
 		//this should preserve the negative sign, if any
-		int i =(int)index;
-		Numero n=new Numero(i);
-		PUSH(n);
+		PUSH((int)index);
 	}
 
 	//test this with negative numbers
 	public void sipush(byte index1,byte index2) {
 		int s = index1 * 256 + (index2 & 0xff);
-		Numero n = new Numero(s);
-		PUSH(n);
+		PUSH(s);
 	}
 
 	//push a constant #index from a constant pool onto the stack
 	public void ldc(byte index1) {
+		ldc(index1 & 0xff);
+	}
+
+	public void ldc(int index1) {
 		//this could be an int but it is probably a string
-		Word w = frame.loadConstant(index1);
-		log("pushing constant #"+index1+" ("+w.toString()+") on to stack");
+		int w = frame.loadConstant(index1);
+		if (debug) log("pushing constant #"+index1+" ("+Word.toString(w)+") on to stack");
 		PUSH(w);
 	}
 
 	//value -> value, value
 	//duplicate the value on top of the stack
 	public void dup() {
-		Word w = POP();
+		int w = POP();
 		PUSH(w);
 		PUSH(w);
 	}
@@ -195,43 +846,230 @@ public class Engine implements OpCodes {
 	//value1, value2 -> result
 	//pop value2 then value1
 	public void iadd() {
-		Numero n2 = POP().toNumero();
-		Numero n1 = POP().toNumero();
-		Numero n3 = LavaMath.ADD(n1,n2);
-		PUSH(n3);
+		int n2 = POP();
+		acc.set(POP());
+		acc.ADD(n2);
+		PUSH(acc.get());
 	}
 
 	//increment local variable #index by signed byte const
-	//does this work with negative numbers?
-	public void iinc(byte ix,byte k) {
-		if (ix<0 || ix>7) throw new IllegalStateException("local variable "+ix+" requested");
-		if (k==1) {
-			frame.incrementLocal(ix);
-		} else {
-			//it gets more complicated
-			Numero n = frame.load(ix).toNumero();
-			Numero addend = new Numero(k);
-			Numero sum = LavaMath.ADD(n,addend);
-			frame.store(ix,sum);
+	//the index is unsigned.  Under wide both are 2 bytes
+	public void iinc(int ix,int k) {
+		frame.incrementLocal(ix,k,acc);
+	}
+
+	//wide: the next op's local index is 2 unsigned bytes, and iinc's const is a signed short
+	public void wide() {
+		byte op = NEXT();
+		byte index1=NEXT();
+		byte index2=NEXT();
+		int n = (index1 & 0xff) << 8 | (index2 & 0xff);
+		switch (op) {
+			case ILOAD: case ALOAD: PUSH( frame.load(n) ); break;
+			case ISTORE: case ASTORE: frame.store(n,POP()); break;
+			case LLOAD: case DLOAD: PUSH2( frame.load2(n) ); break;
+			case LSTORE: case DSTORE: frame.store2(n,POP2()); break;
+			case IINC: index1=NEXT(); index2=NEXT(); iinc(n,offset(index1,index2)); break;
+			default:
+				throw new IllegalStateException("wide "+Integer.toHexString(op)+" is not supported");
 		}
 	}
 
 	//value1, value2 -> result
 	//int subtract
 	public void isub() {
-		Numero n2 = POP().toNumero();
-		Numero n1 = POP().toNumero();
-		Numero n3 = LavaMath.SUB(n1,n2);
-		PUSH(n3);
+		int n2 = POP();
+		acc.set(POP());
+		acc.SUB(n2);
+		PUSH(acc.get());
+	}
+
+	//value1, value2 -> result
+	public void imul() {
+		int n2 = POP();
+		acc.set(POP());
+		acc.MUL(n2);
+		PUSH(acc.get());
+	}
+
+	//value1, value2 -> result
+	//this throws ArithmeticException if value2 is 0
+	public void idiv() {
+		int n2 = POP();
+		acc.set(POP());
+		acc.DIV(n2);
+		PUSH(acc.get());
+	}
+
+	//value1, value2 -> result
+	//this throws ArithmeticException if value2 is 0
+	public void irem() {
+		int n2 = POP();
+		acc.set(POP());
+		acc.REM(n2);
+		PUSH(acc.get());
+	}
+
+	//value -> result
+	public void ineg() {
+		acc.set(POP());
+		acc.NEG();
+		PUSH(acc.get());
+	}
+
+	//value1, value2 -> result
+	//value1 shifted left by the low 5 bits of value2
+	public void ishl() {
+		int n2 = POP();
+		acc.set(POP());
+		acc.SHL(n2);
+		PUSH(acc.get());
+	}
+
+	//============================================================================
+	//long and double.  These use the host's 64-bit math, so they wrap at 64 bits whatever the math mode is
+
+	//push a long or double constant #index from the constant pool
+	public void ldc2_w(byte index1,byte index2) {
+		ldc2_w(index1 << 8 | (index2 & 0xff));
+	}
+
+	//idx is the pool index
+	public void ldc2_w(int idx) {
+		PUSH2(frame.loadConstant2(idx));
+	}
+
+	//value -> value, value
+	//this duplicates the top 2 slots, which is one long or double
+	public void dup2() {
+		int w2 = POP();
+		int w1 = POP();
+		PUSH(w1);
+		PUSH(w2);
+		PUSH(w1);
+		PUSH(w2);
+	}
+
+	public void ladd() {
+		long n2 = POP2();
+		long n1 = POP2();
+		PUSH2(n1+n2);
+	}
+
+	public void lsub() {
+		long n2 = POP2();
+		long n1 = POP2();
+		PUSH2(n1-n2);
+	}
+
+	public void lmul() {
+		long n2 = POP2();
+		long n1 = POP2();
+		PUSH2(n1*n2);
+	}
+
+	public void ldiv() {
+		long n2 = POP2();
+		long n1 = POP2();
+		if (n2==0L) throw new ArithmeticException("/ by zero");
+		PUSH2(n1/n2);
+	}
+
+	public void lrem() {
+		long n2 = POP2();
+		long n1 = POP2();
+		if (n2==0L) throw new ArithmeticException("/ by zero");
+		PUSH2(n1%n2);
+	}
+
+	//value1, value2 -> result
+	//the result is an int: 1 if value1 is greater, 0 if they are equal, -1 if value1 is less
+	public void lcmp() {
+		long n2 = POP2();
+		long n1 = POP2();
+		if (n1>n2) PUSH(1);
+		else if (n1==n2) PUSH(0);
+		else PUSH(-1);
+	}
+
+	public void dadd() {
+		double d2 = POPD();
+		double d1 = POPD();
+		PUSHD(d1+d2);
+	}
+
+	public void dsub() {
+		double d2 = POPD();
+		double d1 = POPD();
+		PUSHD(d1-d2);
+	}
+
+	public void dmul() {
+		double d2 = POPD();
+		double d1 = POPD();
+		PUSHD(d1*d2);
+	}
+
+	public void ddiv() {
+		double d2 = POPD();
+		double d1 = POPD();
+		PUSHD(d1/d2);
+	}
+
+	public void drem() {
+		double d2 = POPD();
+		double d1 = POPD();
+		PUSHD(d1%d2);
+	}
+
+	//like lcmp, but if either one is NaN, push nan (-1 for dcmpl and 1 for dcmpg)
+	public void dcmp(int nan) {
+		double d2 = POPD();
+		double d1 = POPD();
+		if (d1>d2) PUSH(1);
+		else if (d1==d2) PUSH(0);
+		else if (d1<d2) PUSH(-1);
+		else PUSH(nan);
+	}
+
+	//the int is wrapped into the math mode
+	public void l2i() {
+		acc.set((int)POP2());
+		acc.WRAP();
+		PUSH(acc.get());
+	}
+
+	public void d2i() {
+		acc.set((int)POPD());
+		acc.WRAP();
+		PUSH(acc.get());
+	}
+
+	//arrayref, index -> value
+	public void laload() {
+		int index = POP();
+		int aref = POP();
+		long hi = heap.arrayLoad(aref,index*2);
+		long lo = heap.arrayLoad(aref,index*2+1) & 0xFFFFFFFFL;
+		PUSH2((hi<<32) | lo);
+	}
+
+	//arrayref, index, value -> nil
+	public void lastore() {
+		long v = POP2();
+		int index = POP();
+		int aref = POP();
+		heap.arrayStore(aref,index*2,(int)(v>>>32));
+		heap.arrayStore(aref,index*2+1,(int)v);
 	}
 
 	//load a reference onto the stack from local variable 0
 	public void aload(int localn) {
-		log("aload "+localn);
-		Word w = frame.load(localn);
+		if (debug) log("aload "+localn);
+		int w = frame.load(localn);
 		//this is a big problem, don't minimize it
-		if (w==null) {
-			log("aload: frame.load->null");
+		if (w==0) {
+			if (debug) log("aload: frame.load->null");
 			if (localn==0) {
 				throw new IllegalStateException("missing input from user which should be in local0");
 			}
@@ -241,67 +1079,79 @@ public class Engine implements OpCodes {
 
 	//store a reference into local variable 0
 	public void astore(int localn) {
-		log("astore "+localn);
+		if (debug) log("astore "+localn);
 		frame.store(localn,POP());
 	}
 
+	//the index is an unsigned byte
 	public void aload_n(byte x) {
-		aload(x);
+		aload(x & 0xff);
 	}
 
 	public void astore_n(byte x) {
-		int n=(int)x;
-		if (n<0 || n>7) {
-			throw new IllegalStateException("trying to store word in local "+n);
-		}
-		astore(n);
+		astore(x & 0xff);
 	}
 
 	//get a static field value of a class, where the field is identified by field reference
 	//in the constant pool index (indexbyte1 << 8 | indexbyte2)
 	public void getStatic(byte index1,byte index2) {
-		int idx = index1 << 8 | index2;
-		log("getting static field at class index "+idx);
-		Word w = frame.getStatic(idx);
-		log("pushing static field at #"+idx+" ("+w.toString()+") on to stack");
+		getStatic(index1 << 8 | index2);
+	}
+
+	//idx is the pool index
+	public void getStatic(int idx) {
+		if (debug) log("getting static field at class index "+idx);
+		int w = frame.getStatic(idx);
+		if (debug) log("pushing static field at #"+idx+" ("+Word.toString(w)+") on to stack");
 		PUSH(w);
 	}
 
 	//this doesn't need to go through frame - fix later
 	public void getField(byte index1,byte index2) {
-		int idx = index1 << 8 | index2;
-		Word oref = POP();
-		Word w = frame.getField(oref,idx);
+		getField(index1 << 8 | index2);
+	}
+
+	//idx is the pool index
+	public void getField(int idx) {
+		int oref = POP();
+		int w = frame.getField(oref,idx);
 		PUSH(w);
 	}
 	public void putStatic(byte index1,byte index2) {
-		int idx = index1 << 8 | index2;
-		Word val = POP();
+		putStatic(index1 << 8 | index2);
+	}
+
+	//idx is the pool index
+	public void putStatic(int idx) {
+		int val = POP();
 		frame.putStatic(idx,val);
 	}
 
 	//this doesn't need to go through frame - fix later
 	public void putField(byte index1,byte index2) {
-		int idx = index1 << 8 | index2;
-		Word val = POP();
-		Word oref = POP();
+		putField(index1 << 8 | index2);
+	}
+
+	//idx is the pool index
+	public void putField(int idx) {
+		int val = POP();
+		int oref = POP();
 		frame.putField(oref,idx,val);
 	}
 
 	//arrayref, index -> value
 	public void iaload() {
-		int index = POP().toInt();
-		Word aref = POP();
-		int v = heap.arrayLoad(aref,index);
-		PUSH(new Numero(v));
+		int index = POP();
+		int aref = POP();
+		PUSH(heap.arrayLoad(aref,index));
 	}
 
 	//arrayref, index, value -> nil
 	//store an int into an array
 	public void iastore() {
-		int v = POP().toInt();
-		int index = POP().toInt();
-		Word aref = POP();
+		int v = POP();
+		int index = POP();
+		int aref = POP();
 		heap.arrayStore(aref,index,v);
 	}
 
@@ -309,12 +1159,10 @@ public class Engine implements OpCodes {
 	//load onto the stack a reference from an array
 	public void aaload() {
 		//log("aaload(): stack size="+frame.getStackSize());
-		int index = POP().toInt();
-		Word aref = POP();
-		if (aref==null) {log("aaload(): aref is null");}
-		if (heap==null) {log("aaload(): heap is null");}
-		int iv = heap.arrayLoad(aref,index);
-		PUSH(new Word(iv));
+		int index = POP();
+		int aref = POP();
+		if (aref==0) {if (debug) log("aaload(): aref is null");}
+		PUSH(heap.arrayLoad(aref,index));
 	}
 
 	//arrayref, index, value -> nil
@@ -325,31 +1173,40 @@ public class Engine implements OpCodes {
 	//arrayref -> length
 	//get the length of an array
 	public void arraylength() {
-		Word aref = POP();
-		int len = heap.getArrayLength(aref);
+		int aref = POP();
+		PUSH(heap.getArrayLength(aref));
 	}
 
 	//count -> arrayref
 	//create a new array of references of length count and component type identified by the class reference
 	//index (indexbyte1 << 8 | indexbyte2) in the constant pool
-	public void anewarray(byte index1, byte index2) {
-		int idx = index1 << 8 | index2;
+	public void anewarray(byte index1,byte index2) {
+		anewarray(index1 << 8 | index2);
+	}
+
+	//idx is the pool index
+	public void anewarray(int idx) {
 		//get the classname
 		String className=new String(frame.getClassName(idx));
-		int count = POP().toInt();
-		log("creating new array of type "+className+" with "+count+" elements");
+		int count = POP();
+		if (debug) log("creating new array of type "+className+" with "+count+" elements");
 		//fake - it is just an int array
 		Word aref = heap.createArray(Word.ARRAY,count);
-		PUSH(aref);
+		PUSH(aref.toInt());
 	}
 	//count -> arrayref	create new array with count elements of primitive type identified by atype
 	public void newarray(byte index1) {
 		String type = atype(index1);
-		int count = POP().toInt();
-		log("creating new primitive array of type "+type+" with "+count+" elements");
-		//fake - it is just an int array
-		Word aref = heap.createArray(Word.ARRAY,count);
-		PUSH(aref);
+		int count = POP();
+		if (debug) log("creating new primitive array of type "+type+" with "+count+" elements");
+		//fake - it is just an int array, but a long or double needs 2 ints
+		Word aref;
+		if (index1==7 || index1==11) {
+			aref = heap.createWideArray(count);
+		} else {
+			aref = heap.createArray(Word.ARRAY,count);
+		}
+		PUSH(aref.toInt());
 	}
 
 	//this is for information
@@ -370,70 +1227,62 @@ public class Engine implements OpCodes {
 	// -> objectref
 	//create new object of type identified by class reference in constant pool index (indexbyte1 << 8 | indexbyte2)
 	public void newobj(byte index1,byte index2) {
-		int idx = index1 << 8 | index2;
+		newobj(index1 << 8 | index2);
+	}
+
+	//idx is the pool index
+	public void newobj(int idx) {
 		//get the classname
 		String className=new String(frame.getClassName(idx));
-		Word cnref = frame.getClassNameRef(idx);
+		int cnref = frame.getClassNameRef(idx);
 		int count=64;
-		log("creating new object of type "+className);
+		if (debug) log("creating new object of type "+className);
 		//fake - it is just an int array with 64 elements
 		Word aref = heap.createArray(Word.OBJECT,count);
 		//store the classname in index 0 which is never used for anything
 		//nope - this will not work because the object may not be the same class: Word thisClass = frame.getClassRef();
 		//int newObjClass=heap.arrayLoad(thisClass,idx);
-		heap.arrayStore(aref,0,cnref.toInt());
-		PUSH(aref);
+		heap.arrayStore(aref,0,cnref);
+		PUSH(aref.toInt());
+	}
+
+	//a branch offset is a signed short.  The low byte must not be sign extended
+	public static int offset(byte index1,byte index2) {
+		return index1 << 8 | (index2 & 0xff);
 	}
 
 	//goto
 	//goes to another instruction at branchoffset (signed short constructed from unsigned bytes branchbyte1 << 8 | branchbyte2)
 	public void jmp(byte index1,byte index2) {
-		int idx = index1 << 8 | index2;
-		frame.JMP(idx);
+		frame.JMP(offset(index1,index2));
 	}
 
 	//tst is one of the Compare codes, like Compare.EQ
+	//this compares the ints directly, so nothing is created
 	public void branch(byte index1,byte index2,byte tst) {
-		//log("branch index1="+index1+"; index2="+index2);
-		int idx = index1 << 8 | index2;
-		//log("branch: idx="+idx);
-		Numero value2 = POP().toNumero();
-		Numero value1 = POP().toNumero();
-		//log("comparing value1 "+value1.toInt()+" with value2 "+value2.toInt());
-		byte cmp = Compare.CMP(value1,value2);
-		//log("branch: cmp="+cmp);
-		//log("branch: tst="+tst);
-		byte t = Compare.TST(cmp,tst);
-		//log("branch: tst result="+t);
-		if (t>0) {
-			//log("branching forward "+idx);
-			frame.JMP(idx);
-		} else {
-			//log("not branching");
+		int value2 = POP();
+		int value1 = POP();
+		if (Compare.TST(Compare.CMP(value1,value2),tst)>0) {
+			frame.JMP(offset(index1,index2));
 		}
 	}
 
 	//same as branch but you are comparing it to zero
 	public void BRZ(byte index1,byte index2,byte tst) {
-		int idx = index1 << 8 | index2;
-		Numero value2 = Numero.NIL;
-		Numero value1 = POP().toNumero();
-		byte cmp = Compare.CMP(value1,value2);
-		byte t = Compare.TST(cmp,tst);
-		if (t>0) frame.JMP(idx);
+		int value1 = POP();
+		if (Compare.TST(Compare.CMP(value1,0),tst)>0) {
+			frame.JMP(offset(index1,index2));
+		}
 	}
 
 	//same as BRZ but you are comparing the ref indexes to see if they are null
 	public void BRZOBJ(byte index1,byte index2,byte tst) {
-		int idx = index1 << 8 | index2;
-		Numero nil = Numero.NIL;
-		Word ref = POP();
+		int ref = POP();
 		//if this is a ref, then the type is set. Remove the type by getting the index
-		int a = ref.index();
-		Numero value1 = new Numero(a);
-		byte cmp = Compare.CMP(value1,nil);
-		byte t = Compare.TST(cmp,tst);
-		if (t>0) frame.JMP(idx);
+		int a = Word.index(ref);
+		if (Compare.TST(Compare.CMP(a,0),tst)>0) {
+			frame.JMP(offset(index1,index2));
+		}
 	}
 
 	//value1, value2 -> nill
@@ -467,19 +1316,19 @@ public class Engine implements OpCodes {
 		BRZ(index1,index2,Compare.EQ);
 	}
 	public void ifge(byte index1,byte index2) {
-		BRZ(index1,index2,Compare.EQ);
+		BRZ(index1,index2,Compare.GTE);
 	}
 	public void ifgt(byte index1,byte index2) {
-		BRZ(index1,index2,Compare.EQ);
+		BRZ(index1,index2,Compare.GT);
 	}
 	public void ifle(byte index1,byte index2) {
-		BRZ(index1,index2,Compare.EQ);
+		BRZ(index1,index2,Compare.LTE);
 	}
 	public void iflt(byte index1,byte index2) {
-		BRZ(index1,index2,Compare.EQ);
+		BRZ(index1,index2,Compare.LT);
 	}
 	public void ifne(byte index1,byte index2) {
-		BRZ(index1,index2,Compare.EQ);
+		BRZ(index1,index2,Compare.NE);
 	}
 
 	public void ifnull(byte index1,byte index2) {
@@ -489,204 +1338,249 @@ public class Engine implements OpCodes {
 	//return void.
 	//this is easy, just swap out the frames
 	public void returnv() {
-		if (frameStack.size()==0) {
+		if (depth==0) {
 			running=false;
-			log("program 'main' ("+frame.getMethodRef().toString()+") completed");
+			if (debug) log("program 'main' ("+Word.toString(frame.getMethodRef())+") completed");
 		} else {
-			log("returning void; loading frame #"+frameStack.size());
-			frame=(Frame)frameStack.pop();
+			if (debug) log("returning void; loading frame #"+depth);
+			RET();
 		}
 	}
 
 	//return int
 	public void ireturn() {
-		Word ret = POP();
-		log("returning int ("+ret.toString()+"); loading frame #"+frameStack.size());
+		int ret = POP();
+		if (debug) log("returning int ("+Word.toString(ret)+"); loading frame #"+depth);
 		//swap out the frames
-		frame=(Frame)frameStack.pop();
+		RET();
 		PUSH(ret);
 	}
 
+	//return a long or double, which is 2 slots
+	public void lreturn() {
+		long ret = POP2();
+		if (debug) log("returning long ("+ret+"); loading frame #"+depth);
+		//swap out the frames
+		RET();
+		PUSH2(ret);
+	}
+
 	//same as ireturn
 	public void areturn() {
-		Word ret = POP();
-		log("returning ref ("+ret.toString()+"); loading frame #"+frameStack.size());
+		int ret = POP();
+		if (debug) log("returning ref ("+Word.toString(ret)+"); loading frame #"+depth);
 		//swap out the frames
-		frame=(Frame)frameStack.pop();
+		RET();
 		PUSH(ret);
 	}
 
+	//switch to a new frame on the call stack, reusing the one that was at that depth before
+	public void CALL(Word cref,int imref,int bp) {
+		if (depth+1==frames.length) {
+			throw new IllegalStateException("call stack overflow, the max depth is "+frames.length);
+		}
+		depth++;
+		Frame f = frames[depth];
+		if (f==null) {
+			f = new Frame(heap,stack,debug);
+			frames[depth]=f;
+		}
+		f.enter(cref,imref,bp);
+		if (loop==LOOP_DECODED) f.code=decoder.get(imref);
+		else if (loop==LOOP_REGISTER) f.code=ir.get(imref,cref);
+		else if (loop==LOOP_CLOSURE) f.closures=closures.get(imref);
+		else if (loop==LOOP_TIERED) f.code=tiers.enter(imref);
+		frame=f;
+	}
+
+	//switch back to the caller's frame
+	public void RET() {
+		frame=frames[--depth];
+	}
+
+	//find out which native method an external method ref is.
+	//the name is only compared the first time the ref is seen
+	int resolveNative(int imref) {
+		int n = natives.get(imref);
+		if (n==0) {
+			String external = new String(heap.loadAscii(imref));
+			if (external.equals(PRINTLN)) n=NATIVE_PRINTLN;
+			else if (external.equals(PARSEINT)) n=NATIVE_PARSEINT;
+			else if (external.equals(PRINTLN_I)) n=NATIVE_PRINTLN_I;
+			else if (external.equals(SB_INIT)) n=NATIVE_SB_INIT;
+			else if (external.equals(SB_APPEND_STR)) n=NATIVE_SB_APPEND_STR;
+			else if (external.equals(SB_APPEND_I)) n=NATIVE_SB_APPEND_I;
+			else if (external.equals(SB_TOSTR)) n=NATIVE_SB_TOSTR;
+			else if (external.equals(OBJ_INIT)) n=NATIVE_OBJ_INIT;
+			else if (external.equals(PRINTLN_J)) n=NATIVE_PRINTLN_J;
+			else if (external.equals(PRINTLN_D)) n=NATIVE_PRINTLN_D;
+			else n=NATIVE_UNKNOWN;
+			natives.put(imref,n);
+		}
+		return n;
+	}
+
 	//invoke a static method and puts the result on the stack (might be void);
 	//the method is identified by method reference index in constant pool (indexbyte1 << 8 | indexbyte2)
 	//this only calls static methods in the same class
 	public void invoke_static(byte index1,byte index2) {
-		int idx = index1 << 8 | index2;
+		invoke_static(index1 << 8 | index2);
+	}
+
+	//idx is the pool index
+	public void invoke_static(int idx) {
 		Word classRef = frame.getClassRef();
-		log("invoking static method# "+idx);
+		if (debug) log("invoking static method# "+idx);
 
 		//look at the method to see if it is internal or external
 		//get the method ref from the class pool
 		int imref = heap.arrayLoad(classRef,idx);
-		Word r =new Word(imref);
-		byte type=r.type();
+		byte type=Word.type(imref);
 		if (type==Word.EXTERNAL) {
 			//it's an external type. just print it out for now
-			String external = new String(heap.loadAscii(r));
-			log("trying to invoke static "+external);
-			if (external.equals(PARSEINT)) {
-				Integer_parseInt();
-			} else {
-				log("unable to execute "+external);
+			if (debug) log("trying to invoke static "+new String(heap.loadAscii(imref)));
+			switch (resolveNative(imref)) {
+				case NATIVE_PARSEINT: Integer_parseInt(); break;
+				default:
+					if (debug) log("unable to execute "+new String(heap.loadAscii(imref)));
 			}
 			return;
 		}
 
-		Frame subroutine = new Frame(heap,classRef,idx,debug);
-		log("invoke_static: creating new subroutine");
-
-		//get params
-		int params = frame.getNumParams();
-		if (params==0) {
-			subroutine.passStaticParams(0,null,null,null);
-		} else if (params==1) {
-			Word p1 = frame.POP();
-			subroutine.passStaticParams(1,p1,null,null);
-		} else if (params==2) {
-			Word p2 = frame.POP();
-			Word p1 = frame.POP();
-			subroutine.passStaticParams(2,p1,p2,null);
-		} else if (params==3) {
-			Word p3 = frame.POP();
-			Word p2 = frame.POP();
-			Word p1 = frame.POP();
-			subroutine.passStaticParams(3,p1,p2,p3);
-		}
-
-		//--------------
-		//save the old frame
-		frameStack.push(frame);
-		//switch frames
-		frame = subroutine;
-		log("invoke_static: we are in a new frame!");
-		log("invoking static "+idx+" with "+params+" params; frame stack size ="+frameStack.size());
+		//the args are already on top of our stack, and they become the first locals of the subroutine
+		int params = heap.params(imref);
+		frame.sp = frame.sp - params;
+		if (jit!=null) {
+			//if it's compiled, run it right here and push what it returns, like the return ops would
+			Jit.Compiled c = jit.get(classRef,imref);
+			if (c!=null) {
+				int ret = c.run(heap,stack,frame.sp);
+				if (heap.returns(imref)>0) PUSH(ret);
+				return;
+			}
+		}
+		CALL(classRef,imref,frame.sp);
+		if (debug) log("invoking static "+idx+" with "+params+" params; frame stack size ="+depth);
 	}
 
 	//invoke virtual method on object objectref and puts the result on the stack (might be void);
 	//the method is identified by method reference index in constant pool (indexbyte1 << 8 | indexbyte2)
 	public void invoke_virtual(byte index1,byte index2) {
-		int idx = index1 << 8 | index2;
+		invoke_virtual(index1 << 8 | index2);
+	}
+
+	//idx is the pool index
+	public void invoke_virtual(int idx) {
 		Word classRef = frame.getClassRef();
 
 		//look at the method to see if it is internal or external
 		//get the method ref from the class pool
 		int imref = heap.arrayLoad(classRef,idx);
-		Word r = new Word(imref);
-		byte type=r.type();
+		byte type=Word.type(imref);
 		if (type==Word.EXTERNAL ) {
 			//it's an external type. just print it out for now
-			String external = new String(heap.loadAscii(r));
-			log("trying to invoke virtual "+external);
-
-			if (external.equals(PRINTLN)) {
-				PrintStream_println();
-			} else if (external.equals(PRINTLN_I)) {
-				PrintStream_println_I();
-			} else if (external.equals(SB_INIT)) {
-				StringBuilder_init();
-			} else if (external.equals(SB_APPEND_STR)) {
-				StringBuilder_append_String();
-			} else if (external.equals(	SB_APPEND_I)) {
-				StringBuilder_append_int();
-			} else if (external.equals(SB_TOSTR)) {
-				StringBuilder_toString();
-			} else if (external.equals(OBJ_INIT)) {
+			if (debug) log("trying to invoke virtual "+new String(heap.loadAscii(imref)));
+
+			switch (resolveNative(imref)) {
+				case NATIVE_PRINTLN: PrintStream_println(); break;
+				case NATIVE_PRINTLN_I: PrintStream_println_I(); break;
+				case NATIVE_PRINTLN_J: PrintStream_println_J(); break;
+				case NATIVE_PRINTLN_D: PrintStream_println_D(); break;
+				case NATIVE_SB_INIT: StringBuilder_init(); break;
+				case NATIVE_SB_APPEND_STR: StringBuilder_append_String(); break;
+				case NATIVE_SB_APPEND_I: StringBuilder_append_int(); break;
+				case NATIVE_SB_TOSTR: StringBuilder_toString(); break;
 				//i will have fun with this
-				Object_init();
-			} else {
-				log("WARNING: unable to execute "+external);
+				case NATIVE_OBJ_INIT: Object_init(); break;
+				default:
+					if (debug) log("WARNING: unable to execute "+new String(heap.loadAscii(imref)));
 			}
 			return;
 		}
 
-		Frame subroutine = new Frame(heap,classRef,idx,debug);
-
-		//get params
-		int params = subroutine.getNumParams();
-		log("invoke_virtual: the number of params to pass is "+params);
-		if (params==0) {
-			Word oref = frame.POP();
-			subroutine.passParams(oref,0,null,null,null);
-		} else if (params==1) {
-			Word p1 = frame.POP();
-			Word oref = frame.POP();
-			subroutine.passParams(oref,1,p1,null,null);
-		} else if (params==2) {
-			Word p2 = frame.POP();
-			Word p1 = frame.POP();
-			Word oref = frame.POP();
-			subroutine.passParams(oref,2,p1,p2,null);
-		} else if (params==3) {
-			Word p3 = frame.POP();
-			Word p2 = frame.POP();
-			Word p1 = frame.POP();
-			Word oref = frame.POP();
-			subroutine.passParams(oref,3,p1,p2,p3);
-		}
-
-		//--------------
-		//save the old frame
-		frameStack.push(frame);
-		//switch frames
-		frame = subroutine;
-		log("invoking "+idx+" with "+params+" params; frame stack size ="+frameStack.size());
+		//same as invoke_static, but the oref is under the args and it becomes local 0
+		int params = heap.params(imref);
+		frame.sp = frame.sp - params - 1;
+		CALL(classRef,imref,frame.sp);
+		if (debug) log("invoking "+idx+" with "+params+" params; frame stack size ="+depth);
 	}
 
 	//there is nothing special about this, just forward it to invoke_virtual
 	public void invoke_special(byte index1,byte index2) {
-		int idx = index1 << 8 | index2;
-		log("invoking special method# "+idx);
-		log("forwarding this to invoke_virtual which should be able to handle it");
-		invoke_virtual(index1,index2);
+		invoke_special(index1 << 8 | index2);
+	}
+
+	//idx is the pool index
+	public void invoke_special(int idx) {
+		if (debug) log("invoking special method# "+idx);
+		if (debug) log("forwarding this to invoke_virtual which should be able to handle it");
+		invoke_virtual(idx);
 	}
 
 	//checks whether an objectref is of a certain type, the class reference of which
 	//is in the constant pool at index (indexbyte1 << 8 | indexbyte2)
 	//objectref -> objectref
 	public void checkcast(byte index1,byte index2) {
-		int idx = index1 << 8 | index2;
-		Word oref = POP();
+		checkcast(index1 << 8 | index2);
+	}
+
+	//idx is the pool index
+	public void checkcast(int idx) {
+		int oref = POP();
 		//first look at what it is supposed to be
 		String className=new String(frame.getClassName(idx));
-		Word cnref = frame.getClassNameRef(idx);
+		int cnref = frame.getClassNameRef(idx);
 		//now compare it to what it is
-		byte typ = oref.type();
+		byte typ = Word.type(oref);
 		if (typ!=Word.OBJECT) {
-			log("checkcast: what a minute, oref.type is "+oref.type()+" something is wrong here");
+			if (debug) log("checkcast: what a minute, oref.type is "+typ+" something is wrong here");
 		} else {
 			//what is the class
-			Word myClassNameRef=new Word( heap.arrayLoad(oref,0));
+			int myClassNameRef=heap.arrayLoad(oref,0);
 			String myClassName = new String(heap.loadAscii(myClassNameRef));
 
-			if (!cnref.equals(myClassNameRef)) {
-				log("checkcast: the object is of class "+myClassName+" but it is supposed to be "+className+"; I guess its ok");
-			} else {
-				//its good, returning silently
-				PUSH(oref);
-				return;
+			if (cnref!=myClassNameRef) {
+				if (debug) log("checkcast: the object is of class "+myClassName+" but it is supposed to be "+className+"; I guess its ok");
 			}
 		}
+		//checkcast leaves the ref on the stack either way
+		PUSH(oref);
+	}
+
+	//what a StringBuilder chain became.  The parts are on the stack with the first one deepest, and
+	//x says how many there are and which ones are ints.  The string is written straight into the heap
+	//parts... -> sref
+	public void concat(byte index1,byte index2) {
+		concat((index1 & 0xff) << 8 | (index2 & 0xff));
+	}
+
+	public void concat(int x) {
+		int n = parts(x);
+		int sp = frame.sp-n;
+		int start = heap.startAscii();
+		for (int i=0;i<n;i++) {
+			if ((x>>i & 1)!=0) heap.appendInt(stack[sp+i]);
+			else heap.appendAscii(stack[sp+i]);
+		}
+		frame.sp=sp;
+		PUSH(heap.endAscii(start));
+	}
+
+	//the number of parts in a CONCAT operand
+	public static int parts(int x) {
+		return 31-Integer.numberOfLeadingZeros(x);
 	}
 
 	//============================================================================
 	//emulation of java native code
 	//this is the emulation of "java/io/PrintStream.println:(Ljava/lang/String;)V"
 	public void PrintStream_println() {
-		Word sref = POP();
+		int sref = POP();
 		//get the oref
 		//this pretends to be a field but it is just the ascii value
 		// "java/lang/System.out:Ljava/io/PrintStream;"
 		//so we are calling the method "println" on the object "out"
-		Word oref = POP();
+		int oref = POP();
 		String s = new String(heap.loadAscii(sref));
 		System.out.println(s);
 	}
@@ -694,28 +1588,40 @@ public class Engine implements OpCodes {
 	//this is the emulation of static
 	//"java/lang/Integer.parseInt:(Ljava/lang/String;)I"
 	public void Integer_parseInt() {
-		Word sref = POP();
+		int sref = POP();
 		String s = new String(heap.loadAscii(sref));
-		int i=java.lang.Integer.parseInt(s);
-		PUSH(new Numero(i));
+		PUSH(java.lang.Integer.parseInt(s));
 	}
 
 	public void PrintStream_println_I() {
-		Word w = POP();
+		int i = POP();
 		//make sure it is a number
-		int i=w.toInt();
 		if (Word.isRef(i)) {
-			log(i+" is not a number");
+			if (debug) log(i+" is not a number");
 		}
-		Word oref = POP();
+		int oref = POP();
 		System.out.println(i);
 	}
 
+	//"java/io/PrintStream.println:(J)V"
+	public void PrintStream_println_J() {
+		long l = POP2();
+		int oref = POP();
+		System.out.println(l);
+	}
+
+	//"java/io/PrintStream.println:(D)V"
+	public void PrintStream_println_D() {
+		double d = POPD();
+		int oref = POP();
+		System.out.println(d);
+	}
+
 	//the java code shows that this creates a AbstractStringBuilder with an initial capacity of 16
 	//since I don't want to resize it, I will make the capacity 32
 	public void StringBuilder_init() {
-		Word oref = POP();
-		log("StringBuilder_init: oref="+oref.toString());
+		int oref = POP();
+		if (debug) log("StringBuilder_init: oref="+Word.toString(oref));
 		//create an array to store the dynamic string in
 		Word aref = heap.createArray(Word.ARRAY,32);
 		//now where do we store the array ref?
@@ -729,15 +1635,15 @@ public class Engine implements OpCodes {
 	//
 	//StringBuilder.append:(Ljava/lang/String;)
 	public void StringBuilder_append_String() {
-		Word sref = POP();
-		log("StringBuilder_append_String: sref="+sref.toString());
+		int sref = POP();
+		if (debug) log("StringBuilder_append_String: sref="+Word.toString(sref));
 		String s = new String(heap.loadAscii(sref));
-		log("StringBuilder appending: "+s);
+		if (debug) log("StringBuilder appending: "+s);
 		//the oref is the stringbuilder object
-		Word oref = POP();
-		log("StringBuilder_append_String: oref="+oref.toString());
+		int oref = POP();
+		if (debug) log("StringBuilder_append_String: oref="+Word.toString(oref));
 		//get the aref
-		Word aref = new Word(heap.arrayLoad(oref,1));
+		int aref = heap.arrayLoad(oref,1);
 		//get the array pointer initially it is 0
 		int ptr = heap.arrayLoad(oref,2);
 		//get the string bytes
@@ -751,7 +1657,7 @@ public class Engine implements OpCodes {
 		}
 		ptr=ptr+str.length;
 		//save the pointer
-		log("StringBuilder_append_String ptr="+ptr);
+		if (debug) log("StringBuilder_append_String ptr="+ptr);
 		heap.arrayStore(oref,2,ptr);
 		//return the oref
 		PUSH(oref);
@@ -759,17 +1665,17 @@ public class Engine implements OpCodes {
 
 	//java/lang/StringBuilder.append:(I)Ljava/lang/StringBuilder;
 	public void StringBuilder_append_int() {
-		Word wi = POP();
-		log("StringBuilder_append_int wi="+wi.toString());
+		int wi = POP();
+		if (debug) log("StringBuilder_append_int wi="+Word.toString(wi));
 		//the oref is the stringbuilder object
-		Word oref = POP();
-		log("StringBuilder_append_int: oref="+oref.toString());
-		Word aref = new Word(heap.arrayLoad(oref,1));
+		int oref = POP();
+		if (debug) log("StringBuilder_append_int: oref="+Word.toString(oref));
+		int aref = heap.arrayLoad(oref,1);
 		//get the array pointer initially it is 0
 		int ptr = heap.arrayLoad(oref,2);
 		//convert the int to a String
-		String snum = Integer.toString(wi.toInt());
-		log("snum="+snum);
+		String snum = Integer.toString(wi);
+		if (debug) log("snum="+snum);
 		byte[] bnum = snum.getBytes();
 		for (int i=0;i<bnum.length;i++) {
 			int x = i + ptr;
@@ -777,7 +1683,7 @@ public class Engine implements OpCodes {
 		}
 		ptr=ptr+bnum.length;
 		//save the pointer
-		log("StringBuilder_append_int ptr="+ptr);
+		if (debug) log("StringBuilder_append_int ptr="+ptr);
 		heap.arrayStore(oref,2,ptr);
 		//return the oref
 		PUSH(oref);
@@ -785,10 +1691,10 @@ public class Engine implements OpCodes {
 
 	//java/lang/StringBuilder.toString:()Ljava/lang/String;
 	public void StringBuilder_toString() {
-		Word oref = POP();
-		Word aref = new Word(heap.arrayLoad(oref,1));
+		int oref = POP();
+		int aref = heap.arrayLoad(oref,1);
 		int ptr = heap.arrayLoad(oref,2);
-		log ("StringBuilder_toString: ptr="+ptr);
+		if (debug) log("StringBuilder_toString: ptr="+ptr);
 		//can we use System.arraycopy here?  not sure, try it later
 		byte[] str = new byte[ptr];
 		for (int i=0;i<ptr;i++) {
@@ -796,8 +1702,8 @@ public class Engine implements OpCodes {
 			//log("loading "+str[i]);
 		}
 		//now save the string
-		log ("StringBuilder_toString: str="+new String(str));
-		Word sref=heap.storeAscii(Word.ASCII,str);
+		if (debug) log("StringBuilder_toString: str="+new String(str));
+		int sref=heap.intern(Word.ASCII,str);
 		//return it
 		PUSH(sref);
 	}
@@ -805,13 +1711,12 @@ public class Engine implements OpCodes {
 	//have fun with this
 	//"java/lang/Object.<init>:()V"
 	public void Object_init() {
-		Word oref = POP();
+		int oref = POP();
 		//what is the object class? it is located in slot 0
 		int k = heap.arrayLoad(oref,0);
-		Word wk = new Word(k);
-		String sk = new String( heap.loadAscii(wk));
-		log("calling Object.<init> from object "+oref.toString()+" which has class "+wk+" ("+sk+")");
-		log("and God blessed his child "+oref.toString()+" from the tribe of "+sk+" and told him to live long and prosper");
+		String sk = new String( heap.loadAscii(k));
+		if (debug) log("calling Object.<init> from object "+Word.toString(oref)+" which has class "+Word.toString(k)+" ("+sk+")");
+		if (debug) log("and God blessed his child "+Word.toString(oref)+" from the tribe of "+sk+" and told him to live long and prosper");
 		//return void
 
 	}
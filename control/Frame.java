@@ -1,9 +1,7 @@
 package lava.control;
 import lava.storage.Heap;
 import lava.type.Word;
-import lava.math.Numero;
-import java.util.Hashtable;
-import java.util.Stack;
+import lava.math.Accumulator;
 
 /**
 * This represents one Frame.  It holds this information.
@@ -29,63 +27,58 @@ import java.util.Stack;
 public class Frame {
 	Heap heap;
 	Word cref;
-	Word mref;
-	Stack operands = new Stack();
-	Word[] local = new Word[8];	//8 should be enough
+	int mref;
+	//the Engine's value stack.  This frame's locals start at bp and its operands go right after them
+	int[] stack;
+	int bp;		//base pointer, where local 0 is
+	int sp;		//stack pointer, the next free slot
 	int numParams;
 	int mp;		//method pointer
 	int base;
+	//the decoded and register loops run this instead of the bytes at base
+	int[] code;
+	int pc;
+	//and the closure loop runs these
+	Closures.Closure[] closures;
 	boolean debug=true;
 
-	//mx means method index
-	public Frame(Heap h,Word cref,int mx,boolean debug) {
-		log("new frame running class "+cref+" method index "+mx);
+	//the Engine makes one frame for each depth of the call stack and reuses it with enter()
+	public Frame(Heap h,int[] stack,boolean debug) {
 		this.heap=h;
-		this.cref=cref;
-		//get the method ref from the class pool
-		int imref = h.arrayLoad(cref,mx);
-		log("cref="+cref.toString()+";mx="+mx+";imref="+Integer.toString(imref,8));
-		mref = new Word(imref);
-		numParams = h.params(mref);
-		base=mref.index()+2;
+		this.stack=stack;
 		this.debug=debug;
 	}
 
+	//imref is the method ref from the class pool
+	//bp is where the locals start.  The caller has already pushed the args there, so they are
+	//the first locals without copying anything
+	//everything here comes from the method header, which the ClassLoader worked out at load time
+	public void enter(Word cref,int imref,int bp) {
+		if (debug) log("entering class "+cref+" method "+Word.toString(imref)+" at "+bp);
+		this.cref=cref;
+		mref = imref;
+		numParams = heap.params(imref);
+		base=Word.index(imref)+Heap.CODE;
+		mp=0;
+		pc=0;
+		this.bp=bp;
+		//the operands start after the locals plus one scratch slot.  The TOS loop spills an empty
+		//stack's register there, so it never lands on a local
+		sp=bp+heap.maxLocals(imref)+1;
+		//javac already worked out how deep the stack gets, so check once here
+		if (sp+heap.maxStack(imref)>stack.length) {
+			throw new IllegalStateException("stack overflow at "+sp);
+		}
+	}
+
 	public void log(String s) {
 		if (debug) System.out.println(s);
 	}
 
 	public Word getClassRef() {return cref;}
-	public Word getMethodRef() {return mref;}
+	public int getMethodRef() {return mref;}
 	public int getNumParams() {return numParams;}
-	public int getStackSize() {return operands.size();}
-
-	//this is limited to 3 parameters
-	public void passStaticParams(int num,Word p1,Word p2,Word p3) {
-		if (num!=numParams) {
-			throw new IllegalArgumentException("the number of params should be "+numParams+" but it is "+num);
-		}
-		if (num>3) {
-			throw new IllegalArgumentException("we can only handle 3 params");
-		}
-		if (num>=1) local[0]=p1;
-		if (num>=2) local[1]=p2;
-		if (num>=3) local[2]=p3;
-		log("local[0] = "+ local[0]);
-	}
-
-	public void passParams(Word oref,int num,Word p1,Word p2,Word p3) {
-		if (num!=numParams) {
-			throw new IllegalArgumentException("the number of params passed should be "+numParams+" but it is "+num);
-		}
-		if (num>3) {
-			throw new IllegalArgumentException("we can only handle 3 params");
-		}
-		local[0]=(Word)oref;
-		if (num>=1) local[1]=p1;
-		if (num>=2) local[2]=p2;
-		if (num>=3) local[3]=p3;
-	}
+	public int getStackSize() {return sp-bp;}
 
 	//=============================
 	//get bytecode
@@ -120,96 +113,100 @@ public class Frame {
 	//and the advancing mp
 	public void JMP(int p) {
 		mp=mp+p-3;
-		log("jumping to "+mp);
+		if (debug) log("jumping to "+mp);
 	}
 
 	//===============================
 	//stack methods
-	public void PUSH(Word w) {
-		if (w==null) {log("PUSH: w is null");}
-		operands.push(w);
-		//i'm having a problem running out of stack so debug this
-		//but only if stack is small
-		//if (operands.size()<3) {
-		//	log("PUSH "+w.toString()+" ; stack.size is now "+operands.size());
-		//}
-	}
-
-	public Word POP() {
-		//if (operands.size()<3) {
-		//	log("about to POP; stack.size is now "+operands.size());
-		//}
-		Word w = (Word)operands.pop();
-		//if (operands.size()<3) {
-		//	log(w.toString()+" = POP; stack.size is now "+operands.size());
-		//}
-		return w;
+	//no synchronization and no growth check.  The constructor made sure max_stack fits
+	public void PUSH(int w) {
+		stack[sp++]=w;
+	}
+
+	public int POP() {
+		return stack[--sp];
 	}
 
 	//=============================
 	//local variables
-	//n must be 0..7
-	public void store(int n,Word v) {
-		local[n]=v;
-		log("storing "+v.toString()+" in local "+n);
+	//n must be less than max_locals
+	public void store(int n,int v) {
+		stack[bp+n]=v;
+		if (debug) log("storing "+Word.toString(v)+" in local "+n);
 	}
 
-	public Word load(int n) {return local[n];}
+	public int load(int n) {return stack[bp+n];}
+
+	//a long or double is in 2 locals, n and n+1.  The high int is in n
+	public void store2(int n,long v) {
+		stack[bp+n]=(int)(v>>>32);
+		stack[bp+n+1]=(int)v;
+		if (debug) log("storing "+v+" in locals "+n+" and "+(n+1));
+	}
 
-	public void incrementLocal(int ln) {
-		Numero n=local[ln].toNumero();
-		n.INC();
-		n.charm();
-		local[ln]=n;
+	public long load2(int n) {
+		long hi = stack[bp+n];
+		long lo = stack[bp+n+1] & 0xFFFFFFFFL;
+		return (hi<<32) | lo;
+	}
+
+	//acc is the Engine's, so it adds in the Engine's math mode
+	public void incrementLocal(int ln,int k,Accumulator acc) {
+		acc.set(stack[bp+ln]);
+		acc.ADD(k);
+		stack[bp+ln]=acc.get();
 	}
 
 	//================================
 	//pool operations
 	//see LDC
 	//at this point assume it is a string, but it could be an int
-	public Word loadConstant(int n) {
-		int ival=heap.arrayLoad(cref,n);
-		return new Word(ival);
+	public int loadConstant(int n) {
+		return heap.arrayLoad(cref,n);
 	}
 
-	public void putStatic(int idx,Word value) {
-		heap.arrayStore(cref,idx,value.toInt());
+	//see LDC2_W.  A long or double constant is in 2 pool slots, high int first
+	public long loadConstant2(int n) {
+		long hi = heap.arrayLoad(cref,n);
+		long lo = heap.arrayLoad(cref,n+1) & 0xFFFFFFFFL;
+		return (hi<<32) | lo;
 	}
 
-	public void putField(Word oref,int idx,Word value) {
-		heap.arrayStore(oref,idx,value.toInt());
+	public void putStatic(int idx,int value) {
+		heap.arrayStore(cref,idx,value);
 	}
 
-	public Word getStatic(int idx) {
+	public void putField(int oref,int idx,int value) {
+		heap.arrayStore(oref,idx,value);
+	}
+
+	public int getStatic(int idx) {
 		//log("getting static field at class index "+idx);
-		int ival=heap.arrayLoad(cref,idx);
-		return new Word(ival);
+		return heap.arrayLoad(cref,idx);
 	}
 
-	public Word getField(Word oref,int idx) {
-		int ival=heap.arrayLoad(oref,idx);
-		return new Word(ival);
+	public int getField(int oref,int idx) {
+		return heap.arrayLoad(oref,idx);
 	}
 
 	public byte[] getClassName(int n) {
-		int ival=heap.arrayLoad(cref,n);
-		Word cname = new Word(ival);
-		//log("frame.getClassName, the cname of the class to get is "+cname);
+		int cname=heap.arrayLoad(cref,n);
+		//log("frame.getClassName, the cname of the class to get is "+Word.toString(cname));
 		return heap.loadAscii(cname);
 	}
 
-	public Word getClassNameRef(int n) {
-		return new Word(heap.arrayLoad(cref,n));
+	public int getClassNameRef(int n) {
+		return heap.arrayLoad(cref,n);
 	}
 
 	public Word getMethodRef(int idx) {
 		int ival=heap.arrayLoad(cref,idx);
 		//type should be 2
-		int type = ival / Word.INT27;
-		if (type==2) {
+		byte type = Word.type(ival);
+		if (type==Word.METHOD) {
 			return new Word(Word.METHOD,ival);
 		} else {
-			log("getMethodRef: the type is "+type+", which doesn't look right");
+			if (debug) log("getMethodRef: the type is "+type+", which doesn't look right");
 			return new Word(ival);
 		}
 	}
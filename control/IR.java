@@ -0,0 +1,464 @@
+package lava.control;
+import lava.storage.Heap;
+import lava.storage.IntMap;
+import lava.type.Word;
+import lava.OpCodes;
+
+/**
+* IR translates a method's bytecode into register code, which is what the register loop runs.
+*
+* Every instruction is 4 ints: the op and 3 operands, usually dst, a, b.  A register is a slot in the
+* frame, counted from bp.  The locals are registers 0..max_locals-1, and the stack slot at depth d is
+* register max_locals+1+d, which is exactly where the stack loops would have put it.  Since javac always
+* leaves the stack at the same depth at the same place, the depth is known here and every stack slot
+* can be named.
+*
+* While translating, the stack is only kept on paper.  iload just remembers the local and iconst just
+* remembers the number, so iload_1 iload_2 iadd istore_3 comes out as ADD 3,1,2.  The paper stack is
+* written out to its real slots (flushed) before a branch, at a branch target, and before an op that
+* isn't translated.  Those ops become EXEC, which runs the normal handler on the frame's stack.
+*
+* A method is translated the first time it is called and then kept, keyed by its method ref.
+*/
+public class IR implements OpCodes {
+	//the register ops.  The comment is the operands
+	public final static int MOV = 1;		//d s
+	public final static int CONST = 2;		//d k
+	public final static int ADD = 3;		//d a b
+	public final static int SUB = 4;
+	public final static int MUL = 5;
+	public final static int DIV = 6;
+	public final static int REM = 7;
+	public final static int NEG = 8;		//d a
+	public final static int ADDI = 9;		//d a k
+	public final static int BEQ = 10;		//a b target
+	public final static int BNE = 11;
+	public final static int BLT = 12;
+	public final static int BGE = 13;
+	public final static int BGT = 14;
+	public final static int BLE = 15;
+	public final static int BEQZ = 16;		//a _ target
+	public final static int BNEZ = 17;
+	public final static int BLTZ = 18;
+	public final static int BGEZ = 19;
+	public final static int BGTZ = 20;
+	public final static int BLEZ = 21;
+	public final static int BNULL = 22;
+	public final static int GOTO = 23;		//_ _ target
+	public final static int LOADX = 24;		//d array index
+	public final static int STOREX = 25;	//array index value
+	public final static int GETF = 26;		//d oref idx
+	public final static int PUTF = 27;		//oref idx value
+	public final static int EXEC = 28;		//bytecode operand sp.  sp is the register just above the top of the stack
+	public final static int SHL = 29;		//d a b
+
+	Heap heap;
+	IntMap slots = new IntMap();
+	int[][] translated = new int[16][];
+	int count;
+	boolean debug;
+
+	//the method being translated
+	Word cref;
+	int locals;
+	int[] code;
+	int n;			//the next free int in code
+	int last;		//the instruction that computed the top of the stack, or -1
+	//the paper stack.  A slot is either a register or a constant
+	boolean[] isConst;
+	int[] val;
+	int depth;
+
+	public IR(Heap h,boolean debug) {
+		this.heap=h;
+		this.debug=debug;
+	}
+
+	public void log(String s) {
+		if (debug) System.out.println("[IR] "+s);
+	}
+
+	//get the register code for a method in class cref, translating it if this is the first time
+	public int[] get(int imref,Word cref) {
+		int slot = slots.get(imref);
+		if (slot>0) return translated[slot-1];
+		byte[] b = heap.loadMethod(imref);
+		int[] c = translate(b,cref,heap.maxLocals(imref),heap.maxStack(imref));
+		if (count==translated.length) {
+			int[][] bigger = new int[count*2][];
+			System.arraycopy(translated,0,bigger,0,count);
+			translated=bigger;
+		}
+		translated[count++]=c;
+		slots.put(imref,count);
+		if (debug) log("translated "+Word.toString(imref)+" from "+b.length+" bytes into "+(c.length/4)+" instructions");
+		return c;
+	}
+
+	//===============================
+	//emitting
+
+	void emit(int op,int a,int b,int c) {
+		if (n+4>code.length) {
+			int[] bigger = new int[code.length*2];
+			System.arraycopy(code,0,bigger,0,n);
+			code=bigger;
+		}
+		code[n]=op;
+		code[n+1]=a;
+		code[n+2]=b;
+		code[n+3]=c;
+		n=n+4;
+		last=-1;
+	}
+
+	//the register for stack depth d
+	int slot(int d) {
+		return locals+1+d;
+	}
+
+	void pushReg(int r) {
+		isConst[depth]=false;
+		val[depth]=r;
+		depth++;
+	}
+
+	void pushConst(int k) {
+		isConst[depth]=true;
+		val[depth]=k;
+		depth++;
+	}
+
+	//write stack entry d to its own slot, if it isn't there already
+	void materialize(int d) {
+		if (isConst[d]) {
+			emit(CONST,slot(d),val[d],0);
+		} else if (val[d]!=slot(d)) {
+			emit(MOV,slot(d),val[d],0);
+		} else {
+			return;
+		}
+		isConst[d]=false;
+		val[d]=slot(d);
+	}
+
+	void flush() {
+		for (int d=0;d<depth;d++) materialize(d);
+	}
+
+	//pop the top and get a register that has it.  A constant is put in its slot first
+	int popReg() {
+		depth--;
+		if (isConst[depth]) materialize(depth);
+		return val[depth];
+	}
+
+	//before local r is written, anything on the paper stack that still points at it has to be copied out.
+	//This returns true if anything was
+	boolean beforeWrite(int r) {
+		boolean wrote = false;
+		for (int d=0;d<depth;d++) {
+			if (!isConst[d] && val[d]==r) {
+				materialize(d);
+				wrote=true;
+			}
+		}
+		return wrote;
+	}
+
+	//push the result of the instruction that was just emitted, which wrote the slot for this depth
+	void pushResult() {
+		int i = n-4;
+		pushReg(slot(depth));
+		last=i;
+	}
+
+	void store(int r) {
+		int top = depth-1;
+		//if the top was just computed into its slot and nothing else needs the old local,
+		//then compute it straight into the local instead
+		if (last>=0 && !isConst[top] && val[top]==slot(top) && code[last+1]==slot(top)) {
+			int i = last;
+			depth--;
+			if (!beforeWrite(r)) {
+				code[i+1]=r;
+				return;
+			}
+			emit(MOV,r,slot(depth),0);
+			return;
+		}
+		depth--;
+		beforeWrite(r);
+		if (isConst[depth]) emit(CONST,r,val[depth],0);
+		else emit(MOV,r,val[depth],0);
+	}
+
+	//===============================
+	//translating
+
+	public int[] translate(byte[] b,Word cref,int maxLocals,int maxStack) {
+		this.cref=cref;
+		locals=maxLocals;
+		code = new int[64];
+		n=0;
+		last=-1;
+		isConst = new boolean[maxStack+1];
+		val = new int[maxStack+1];
+		depth=0;
+
+		boolean[] t = Decoder.targets(b);
+		int[] at = new int[b.length];
+		int[] depthAt = new int[b.length];
+		for (int i=0;i<b.length;i++) depthAt[i]=-1;
+		//the branches, which still have the bytecode target in them
+		int[] fix = new int[16];
+		int nfix = 0;
+		boolean dead = false;
+
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			if (t[pc] || dead) {
+				//a label.  Everything going in has to agree on where the stack is
+				if (dead) {
+					depth = depthAt[pc]<0 ? 0 : depthAt[pc];
+					for (int d=0;d<depth;d++) {isConst[d]=false; val[d]=slot(d);}
+				} else {
+					flush();
+				}
+				last=-1;
+				dead=false;
+			}
+			at[pc]=n/4;
+
+			byte op = b[pc];
+			int x = 0;
+			if (op==WIDE) {
+				op = b[pc+1];
+				x = Decoder.u2(b,pc+2);
+			} else if (Decoder.length(b,pc)==2 || op==IINC) {
+				x = Decoder.u1(b,pc+1);
+			} else if (Decoder.length(b,pc)==3 && !Decoder.isBranch(op)) {
+				x = Decoder.u2(b,pc+1);
+			}
+
+			int ra;
+			int rb;
+			int rc;
+			switch (op) {
+				case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+				case ICONST_3: case ICONST_4: case ICONST_5:
+					pushConst(op-ICONST_0); break;
+				case BIPUSH: pushConst(b[pc+1]); break;
+				case SIPUSH: pushConst(Decoder.s2(b,pc+1)); break;
+
+				case ILOAD_0: case ILOAD_1: case ILOAD_2: case ILOAD_3: pushReg(op-ILOAD_0); break;
+				case ALOAD_0: case ALOAD_1: case ALOAD_2: case ALOAD_3: pushReg(op-ALOAD_0); break;
+				case ILOAD: case ALOAD: pushReg(x); break;
+				case ISTORE_0: case ISTORE_1: case ISTORE_2: case ISTORE_3: store(op-ISTORE_0); break;
+				case ASTORE_0: case ASTORE_1: case ASTORE_2: case ASTORE_3: store(op-ASTORE_0); break;
+				case ISTORE: case ASTORE: store(x); break;
+				case IINC:
+					int k = b[pc]==WIDE ? Decoder.s2(b,pc+4) : b[pc+2];
+					beforeWrite(x);
+					emit(ADDI,x,x,k);
+					break;
+				case POP:
+					//nothing is on the real stack to drop
+					depth--;
+					break;
+				case DUP:
+					isConst[depth]=isConst[depth-1];
+					val[depth]=val[depth-1];
+					depth++;
+					break;
+
+				case IADD: case ISUB:
+					//adding a constant doesn't need a register for it
+					if (isConst[depth-1]) {
+						int kb = op==IADD ? val[depth-1] : -val[depth-1];
+						depth--;
+						ra = popReg();
+						emit(ADDI,slot(depth),ra,kb);
+						pushResult();
+					} else {
+						arith3(op);
+					}
+					break;
+				case IMUL: case IDIV: case IREM: case ISHL:
+					arith3(op);
+					break;
+				case INEG:
+					ra = popReg();
+					emit(NEG,slot(depth),ra,0);
+					pushResult();
+					break;
+
+				case IALOAD:
+					rb = popReg();
+					ra = popReg();
+					emit(LOADX,slot(depth),ra,rb);
+					pushResult();
+					break;
+				case IASTORE:
+					rc = popReg();
+					rb = popReg();
+					ra = popReg();
+					emit(STOREX,ra,rb,rc);
+					break;
+				case GETFIELD:
+					ra = popReg();
+					emit(GETF,slot(depth),ra,x);
+					pushResult();
+					break;
+				case PUTFIELD:
+					rb = popReg();
+					ra = popReg();
+					emit(PUTF,ra,x,rb);
+					break;
+
+				case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE: case IF_ICMPGT: case IF_ICMPLE:
+				case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE: case IFNULL:
+				case JMP:
+					int target = pc+Decoder.s2(b,pc+1);
+					ra=0;
+					rb=0;
+					if (op!=JMP) {
+						if (op>=IF_ICMPEQ && op<=IF_ICMPLE) rb = popReg();
+						ra = popReg();
+					}
+					flush();
+					depthAt[target]=depth;
+					emit(branch(op),ra,rb,target);
+					if (nfix==fix.length) {
+						int[] bigger = new int[nfix*2];
+						System.arraycopy(fix,0,bigger,0,nfix);
+						fix=bigger;
+					}
+					fix[nfix++]=n-1;
+					if (op==JMP) dead=true;
+					break;
+
+				case RETURNV: case IRETURN: case ARETURN: case LRETURN: case DRETURN:
+					flush();
+					emit(EXEC,op,0,slot(depth));
+					dead=true;
+					break;
+
+				default:
+					//run it on the real stack
+					flush();
+					emit(EXEC,op,x,slot(depth));
+					depth = depth+effect(op,x);
+					for (int d=0;d<depth;d++) {isConst[d]=false; val[d]=slot(d);}
+			}
+		}
+
+		//now that everything has a place, point the branches at it
+		for (int i=0;i<nfix;i++) {
+			code[fix[i]]=at[code[fix[i]]]*4;
+		}
+		int[] c = new int[n];
+		System.arraycopy(code,0,c,0,n);
+		return c;
+	}
+
+	//an op on the top two slots, into a register
+	void arith3(byte op) {
+		int rb = popReg();
+		int ra = popReg();
+		emit(arith(op),slot(depth),ra,rb);
+		pushResult();
+	}
+
+	static int arith(byte op) {
+		switch (op) {
+			case IADD: return ADD;
+			case ISUB: return SUB;
+			case IMUL: return MUL;
+			case IDIV: return DIV;
+			case ISHL: return SHL;
+			default: return REM;
+		}
+	}
+
+	static int branch(byte op) {
+		switch (op) {
+			case IF_ICMPEQ: return BEQ;
+			case IF_ICMPNE: return BNE;
+			case IF_ICMPLT: return BLT;
+			case IF_ICMPGE: return BGE;
+			case IF_ICMPGT: return BGT;
+			case IF_ICMPLE: return BLE;
+			case IFEQ: return BEQZ;
+			case IFNE: return BNEZ;
+			case IFLT: return BLTZ;
+			case IFGE: return BGEZ;
+			case IFGT: return BGTZ;
+			case IFLE: return BLEZ;
+			case IFNULL: return BNULL;
+			default: return GOTO;
+		}
+	}
+
+	//how much an op that runs on the real stack changes the depth
+	int effect(byte op,int x) {
+		switch (op) {
+			case LDC: case GETSTATIC: case NEWOBJ: case I2L: case I2D:
+				return 1;
+			case LDC2_W: case LCONST_0: case LCONST_1: case DCONST_0: case DCONST_1: case DUP2:
+			case LLOAD_0: case LLOAD_1: case LLOAD_2: case LLOAD_3: case LLOAD:
+			case DLOAD_0: case DLOAD_1: case DLOAD_2: case DLOAD_3: case DLOAD:
+				return 2;
+			case PUTSTATIC: case AALOAD: case L2I: case D2I:
+				return -1;
+			case LSTORE_0: case LSTORE_1: case LSTORE_2: case LSTORE_3: case LSTORE:
+			case DSTORE_0: case DSTORE_1: case DSTORE_2: case DSTORE_3: case DSTORE:
+			case POP2: case LADD: case LSUB: case LMUL: case LDIV: case LREM:
+			case DADD: case DSUB: case DMUL: case DDIV: case DREM:
+				return -2;
+			case LCMP: case DCMPL: case DCMPG: case AASTORE:
+				return -3;
+			case LASTORE: case DASTORE:
+				return -4;
+			case CONCAT: return 1-Engine.parts(x);
+			case INVOKESTATIC: return invokeEffect(x,0);
+			case INVOKEVIRTUAL: case INVOKESPECIAL: return invokeEffect(x,1);
+			default:
+				//the rest leave the depth alone, like arraylength, the array news and the conversions
+				return 0;
+		}
+	}
+
+	//a call pops its args (and the oref) and pushes what it returns
+	int invokeEffect(int idx,int oref) {
+		int imref = heap.arrayLoad(cref,idx);
+		if (Word.type(imref)==Word.EXTERNAL) {
+			//a native.  Work it out from the descriptor, like "java/io/PrintStream.println:(I)V"
+			String s = new String(heap.loadAscii(imref));
+			String desc = s.substring(s.indexOf('('));
+			return size(desc.substring(desc.indexOf(')')+1)) - args(desc) - oref;
+		}
+		return heap.returns(imref) - heap.params(imref) - oref;
+	}
+
+	//the number of slots the args in a descriptor take
+	static int args(String desc) {
+		int slots = 0;
+		int i = 1;
+		while (desc.charAt(i)!=')') {
+			char c = desc.charAt(i);
+			if (c=='J' || c=='D') slots=slots+2;
+			else slots++;
+			while (desc.charAt(i)=='[') i++;
+			if (desc.charAt(i)=='L') i=desc.indexOf(';',i);
+			i++;
+		}
+		return slots;
+	}
+
+	static int size(String type) {
+		char c = type.charAt(0);
+		if (c=='V') return 0;
+		if (c=='J' || c=='D') return 2;
+		return 1;
+	}
+}
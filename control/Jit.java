@@ -0,0 +1,541 @@
+package lava.control;
+import lava.storage.Heap;
+import lava.storage.IntMap;
+import lava.type.Word;
+import lava.OpCodes;
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+* The Jit compiles hot static methods into real JVM classes with BCEL, so HotSpot runs them instead of
+* the interpreter.
+*
+* invoke_static asks get() for each call.  That counts the calls, and when a method has been called
+* threshold times it is queued for compiling, along with every method it calls.  A background thread
+* makes the classes and loads them, and the next call after that runs the compiled code.
+*
+* The compiled code works on the same values as the interpreter.  Every value is its packed int, the
+* guest's locals and stack are the host method's locals and stack, the math is LavaMath's with the
+* engine's shift, and arrays, fields and statics are read and written in the Heap.  So a compiled method
+* can be called in the middle of an interpreted program and nothing else can tell.
+*
+* Only methods that use ints and refs, and only call other methods like that, are compiled.  Anything
+* with longs, doubles, objects being made, natives or virtual calls stays in the interpreter.
+*
+* Each method becomes a class lava.jit.M(mref), with
+*	public static int m(int... args,Heap h)		the method itself.  A void method returns 0
+*	public int run(Heap h,int[] stack,int sp)	this calls m with the args at stack[sp]
+*/
+public class Jit implements OpCodes {
+	//the interpreter calls the compiled code through this
+	public interface Compiled {
+		int run(Heap h,int[] stack,int sp);
+	}
+
+	public final static int THRESHOLD = 1000;
+	//what state says about a method
+	final static int QUEUED = 1;
+	final static int REJECTED = 2;
+
+	Heap heap;
+	int shift;
+	int threshold = THRESHOLD;
+	boolean background = true;
+	boolean debug;
+
+	//the calls to each method
+	IntMap counts = new IntMap();
+	IntMap state = new IntMap();
+	//the method ref -> the slot in compiled, plus 1
+	IntMap slots = new IntMap();
+	Compiled[] compiled = new Compiled[16];
+	//the class files, in the same slots, for the AOT bundle
+	byte[][] classes = new byte[16][];
+	int count;
+
+	//the jobs go to the compiler thread in todo and come back in done
+	LinkedBlockingQueue<Job> todo = new LinkedBlockingQueue<Job>();
+	ConcurrentLinkedQueue<Job> done = new ConcurrentLinkedQueue<Job>();
+	Thread compiler;
+	Loader loader = new Loader();
+
+	public Jit(Heap h,int shift,boolean debug) {
+		this.heap=h;
+		this.shift=shift;
+		this.debug=debug;
+	}
+
+	public void log(String s) {
+		if (debug) System.out.println("[Jit] "+s);
+	}
+
+	public void setThreshold(int n) {
+		if (n<1) throw new IllegalArgumentException("invalid jit threshold "+n);
+		threshold=n;
+	}
+
+	//if this is off, a method is compiled right there on the interpreter's thread
+	public void setBackground(boolean b) {
+		background=b;
+	}
+
+	//the compiled code for a method, or null if it isn't compiled (yet).  This is called on every
+	//static call the interpreter makes, so it has to be cheap
+	public Compiled get(Word cref,int imref) {
+		int slot = slots.get(imref);
+		if (slot>0) return compiled[slot-1];
+		if (!done.isEmpty()) install();
+		int n = counts.get(imref)+1;
+		counts.put(imref,n);
+		//past the threshold too, since a method that was queued with a job that failed goes back to 0
+		if (n>=threshold) submit(cref,imref);
+		slot = slots.get(imref);
+		return slot>0 ? compiled[slot-1] : null;
+	}
+
+	//=====================================
+	//the interpreter's side
+
+	//one method to compile.  Everything about it is read from the heap here, on the interpreter's
+	//thread, so the compiler thread never touches the heap
+	static class Unit {
+		int mref;
+		byte[] b;
+		int params;
+		int locals;
+		int returns;
+		int cref;
+		//for each invokestatic, the method ref that it calls and what it takes and returns
+		int[] callee;
+		int[] calleeParams;
+		int[] calleeReturns;
+	}
+
+	static class Job {
+		ArrayList<Unit> units = new ArrayList<Unit>();
+		Compiled[] out;
+		byte[][] bytes;
+	}
+
+	void submit(Word cref,int imref) {
+		if (state.get(imref)!=0) return;
+		Job job = new Job();
+		if (!collect(cref,imref,job)) {
+			//the callees can still be compiled on their own later
+			for (Unit u : job.units) state.put(u.mref,0);
+			state.put(imref,REJECTED);
+			if (debug) log(Word.toString(imref)+" can't be compiled");
+			return;
+		}
+		if (debug) log("compiling "+Word.toString(imref)+" and "+(job.units.size()-1)+" methods it calls");
+		if (background) {
+			if (compiler==null) {
+				compiler = new Thread(this::compileLoop,"lava-jit");
+				compiler.setDaemon(true);
+				compiler.start();
+			}
+			todo.add(job);
+		} else {
+			compile(job);
+			install();
+		}
+	}
+
+	//make a unit for the method and everything it calls that isn't compiled or queued already.
+	//This returns false if any of them can't be compiled
+	boolean collect(Word cref,int imref,Job job) {
+		if (slots.get(imref)>0 || state.get(imref)==QUEUED) return true;
+		//an instance method has the oref in local 0, which the compiled form doesn't have
+		if (state.get(imref)==REJECTED || heap.returns(imref)>1 || !heap.isStatic(imref)) return false;
+		Unit u = new Unit();
+		u.mref=imref;
+		u.b=heap.loadMethod(imref);
+		u.params=heap.params(imref);
+		u.locals=heap.maxLocals(imref);
+		u.returns=heap.returns(imref);
+		u.cref=cref.toInt();
+		u.callee=new int[u.b.length];
+		u.calleeParams=new int[u.b.length];
+		u.calleeReturns=new int[u.b.length];
+		state.put(imref,QUEUED);
+		job.units.add(u);
+
+		byte[] b = u.b;
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			byte op = b[pc]==WIDE ? b[pc+1] : b[pc];
+			if (op==INVOKESTATIC) {
+				int mref = heap.arrayLoad(cref,Decoder.u2(b,pc+1));
+				if (Word.type(mref)==Word.EXTERNAL) return false;
+				u.callee[pc]=mref;
+				u.calleeParams[pc]=heap.params(mref);
+				u.calleeReturns[pc]=heap.returns(mref);
+				if (!collect(cref,mref,job)) return false;
+			} else if (!supported(op)) {
+				if (debug) log(Word.toString(imref)+" has op "+Profiler.name(op));
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean supported(byte op) {
+		switch (op) {
+			case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2: case ICONST_3: case ICONST_4: case ICONST_5:
+			case BIPUSH: case SIPUSH: case DUP: case POP:
+			case ILOAD_0: case ILOAD_1: case ILOAD_2: case ILOAD_3: case ILOAD:
+			case ALOAD_0: case ALOAD_1: case ALOAD_2: case ALOAD_3: case ALOAD:
+			case ISTORE_0: case ISTORE_1: case ISTORE_2: case ISTORE_3: case ISTORE:
+			case ASTORE_0: case ASTORE_1: case ASTORE_2: case ASTORE_3: case ASTORE:
+			case IADD: case ISUB: case IMUL: case IDIV: case IREM: case INEG: case IINC: case ISHL:
+			case IALOAD: case IASTORE: case AALOAD: case AASTORE: case ARRAYLENGTH:
+			case GETFIELD: case PUTFIELD: case GETSTATIC: case PUTSTATIC:
+			case IRETURN: case ARETURN: case RETURNV:
+				return true;
+			default:
+				return Decoder.isBranch(op);
+		}
+	}
+
+	//put what the compiler finished where get() can find it
+	void install() {
+		Job job;
+		while ((job=done.poll())!=null) {
+			for (int i=0;i<job.units.size();i++) {
+				Unit u = job.units.get(i);
+				if (job.out==null) {
+					//only the method the job was for is rejected.  What it calls can still be
+					//compiled on its own
+					state.put(u.mref,i==0 ? REJECTED : 0);
+					continue;
+				}
+				add(u.mref,job.out[i],job.bytes[i]);
+				if (debug) log("installed "+Word.toString(u.mref));
+			}
+		}
+	}
+
+	void add(int mref,Compiled c,byte[] b) {
+		if (count==compiled.length) {
+			Compiled[] bigger = new Compiled[count*2];
+			System.arraycopy(compiled,0,bigger,0,count);
+			compiled=bigger;
+			byte[][] more = new byte[count*2][];
+			System.arraycopy(classes,0,more,0,count);
+			classes=more;
+		}
+		compiled[count]=c;
+		classes[count]=b;
+		count++;
+		slots.put(mref,count);
+	}
+
+	//=====================================
+	//ahead of time.  See Bundle
+
+	//compile every method in the class that can be compiled, right now.  This returns their method refs
+	public int[] compileAll(Word cref) {
+		boolean bg = background;
+		background=false;
+		//the methods are all in the class's pool.  Only the static ones can be compiled
+		for (int i=0;i<heap.getArrayLength(cref);i++) {
+			int r = heap.arrayLoad(cref,i);
+			if (Word.type(r)==Word.METHOD && heap.isStatic(r) && slots.get(r)==0) submit(cref,r);
+		}
+		background=bg;
+		int[] mrefs = slots.keys();
+		if (debug) log("compiled "+mrefs.length+" methods ahead of time");
+		return mrefs;
+	}
+
+	//the class file for a compiled method
+	public byte[] classFile(int mref) {
+		int slot = slots.get(mref);
+		return slot>0 ? classes[slot-1] : null;
+	}
+
+	//load a class that was compiled before, from a bundle
+	public void define(int mref,byte[] b) throws ReflectiveOperationException {
+		String name = className(mref);
+		loader.define(name,b);
+		Class<?> c = Class.forName(name,true,loader);
+		add(mref,(Compiled)c.getDeclaredConstructor().newInstance(),b);
+		if (debug) log("loaded "+name);
+	}
+
+	//=====================================
+	//the compiler's side
+
+	void compileLoop() {
+		while (true) {
+			try {
+				compile(todo.take());
+			} catch (InterruptedException x) {
+				return;
+			}
+		}
+	}
+
+	//make and load the classes for a job.  If anything goes wrong none of it is used
+	void compile(Job job) {
+		try {
+			Compiled[] out = new Compiled[job.units.size()];
+			byte[][] bytes = new byte[out.length][];
+			for (int i=0;i<out.length;i++) {
+				Unit u = job.units.get(i);
+				String name = className(u.mref);
+				bytes[i]=generate(u);
+				loader.define(name,bytes[i]);
+				//this links and verifies it now, rather than on the first call
+				Class<?> c = Class.forName(name,true,loader);
+				out[i]=(Compiled)c.getDeclaredConstructor().newInstance();
+			}
+			job.bytes=bytes;
+			job.out=out;
+		} catch (Exception | LinkageError x) {
+			if (debug) log("compile failed: "+x);
+		}
+		done.add(job);
+	}
+
+	static String className(int mref) {
+		return "lava.jit.M"+Integer.toHexString(mref);
+	}
+
+	static class Loader extends java.lang.ClassLoader {
+		Loader() {
+			super(Jit.class.getClassLoader());
+		}
+
+		Class<?> define(String name,byte[] b) {
+			return defineClass(name,b,0,b.length);
+		}
+	}
+
+	final static ObjectType HEAP = new ObjectType("lava.storage.Heap");
+	final static String MATH = "lava.math.LavaMath";
+	final static String JIT = "lava.control.Jit";
+
+	//the host local for guest local n.  The Heap goes right after the args
+	static int local(Unit u,int n) {
+		return n<u.params ? n : n+1;
+	}
+
+	static Type[] args(int params) {
+		Type[] t = new Type[params+1];
+		for (int i=0;i<params;i++) t[i]=Type.INT;
+		t[params]=HEAP;
+		return t;
+	}
+
+	byte[] generate(Unit u) {
+		String name = className(u.mref);
+		ClassGen cg = new ClassGen(name,"java.lang.Object","<jit>",Constants.ACC_PUBLIC|Constants.ACC_SUPER,
+			new String[] {JIT+"$Compiled"});
+		ConstantPoolGen cp = cg.getConstantPool();
+		InstructionFactory f = new InstructionFactory(cg);
+		cg.addEmptyConstructor(Constants.ACC_PUBLIC);
+		cg.addMethod(method(u,name,cp,f));
+
+		//run(Heap h,int[] stack,int sp) reads the args out of the stack and calls m
+		InstructionList il = new InstructionList();
+		for (int i=0;i<u.params;i++) {
+			il.append(new ALOAD(2));
+			il.append(new ILOAD(3));
+			il.append(new PUSH(cp,i));
+			il.append(InstructionConstants.IADD);
+			il.append(InstructionConstants.IALOAD);
+		}
+		il.append(new ALOAD(1));
+		il.append(f.createInvoke(name,"m",Type.INT,args(u.params),Constants.INVOKESTATIC));
+		il.append(InstructionConstants.IRETURN);
+		MethodGen mg = new MethodGen(Constants.ACC_PUBLIC,Type.INT,new Type[] {HEAP,new ArrayType(Type.INT,1),Type.INT},
+			new String[] {"h","stack","sp"},"run",name,il,cp);
+		mg.setMaxStack();
+		mg.setMaxLocals();
+		cg.addMethod(mg.getMethod());
+		il.dispose();
+		return cg.getJavaClass().getBytes();
+	}
+
+	//translate the guest's bytecode.  It is a stack machine too, so this is nearly one for one
+	org.apache.bcel.classfile.Method method(Unit u,String name,ConstantPoolGen cp,InstructionFactory f) {
+		byte[] b = u.b;
+		int h = u.params;
+		InstructionList il = new InstructionList();
+		InstructionHandle[] at = new InstructionHandle[b.length];
+		BranchHandle[] branches = new BranchHandle[b.length];
+
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			InstructionHandle end = il.getEnd();
+			byte op = b[pc];
+			int x = 0;
+			if (op==WIDE) {
+				op = b[pc+1];
+				x = Decoder.u2(b,pc+2);
+			} else if (Decoder.length(b,pc)==2 || op==IINC) {
+				x = Decoder.u1(b,pc+1);
+			} else if (Decoder.length(b,pc)==3 && !Decoder.isBranch(op)) {
+				x = Decoder.u2(b,pc+1);
+			}
+
+			switch (op) {
+				case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+				case ICONST_3: case ICONST_4: case ICONST_5:
+					il.append(new PUSH(cp,op-ICONST_0)); break;
+				case BIPUSH: il.append(new PUSH(cp,b[pc+1])); break;
+				case SIPUSH: il.append(new PUSH(cp,Decoder.s2(b,pc+1))); break;
+				case DUP: il.append(InstructionConstants.DUP); break;
+				case POP: il.append(InstructionConstants.POP); break;
+
+				//a ref is an int too
+				case ILOAD_0: case ILOAD_1: case ILOAD_2: case ILOAD_3: il.append(new ILOAD(local(u,op-ILOAD_0))); break;
+				case ALOAD_0: case ALOAD_1: case ALOAD_2: case ALOAD_3: il.append(new ILOAD(local(u,op-ALOAD_0))); break;
+				case ILOAD: case ALOAD: il.append(new ILOAD(local(u,x))); break;
+				case ISTORE_0: case ISTORE_1: case ISTORE_2: case ISTORE_3: il.append(new ISTORE(local(u,op-ISTORE_0))); break;
+				case ASTORE_0: case ASTORE_1: case ASTORE_2: case ASTORE_3: il.append(new ISTORE(local(u,op-ASTORE_0))); break;
+				case ISTORE: case ASTORE: il.append(new ISTORE(local(u,x))); break;
+
+				//the math goes through LavaMath so it wraps the same way
+				case IINC:
+					int k = b[pc]==WIDE ? Decoder.s2(b,pc+4) : b[pc+2];
+					il.append(new ILOAD(local(u,x)));
+					il.append(new PUSH(cp,k));
+					il.append(new PUSH(cp,shift));
+					il.append(f.createInvoke(MATH,"ADD",Type.INT,new Type[] {Type.INT,Type.INT,Type.INT},Constants.INVOKESTATIC));
+					il.append(new ISTORE(local(u,x)));
+					break;
+				case IADD: case ISUB: case IMUL: case IDIV: case IREM: case ISHL:
+					il.append(new PUSH(cp,shift));
+					il.append(f.createInvoke(MATH,math(op),Type.INT,new Type[] {Type.INT,Type.INT,Type.INT},Constants.INVOKESTATIC));
+					break;
+				case INEG:
+					il.append(new PUSH(cp,shift));
+					il.append(f.createInvoke(MATH,"NEG",Type.INT,new Type[] {Type.INT,Type.INT},Constants.INVOKESTATIC));
+					break;
+
+				//the heap.  See the helpers at the bottom
+				case IALOAD: case AALOAD:
+					il.append(new ALOAD(h));
+					il.append(f.createInvoke(JIT,"load",Type.INT,new Type[] {Type.INT,Type.INT,HEAP},Constants.INVOKESTATIC));
+					break;
+				case IASTORE: case AASTORE:
+					il.append(new ALOAD(h));
+					il.append(f.createInvoke(JIT,"store",Type.VOID,new Type[] {Type.INT,Type.INT,Type.INT,HEAP},Constants.INVOKESTATIC));
+					break;
+				case ARRAYLENGTH:
+					il.append(new ALOAD(h));
+					il.append(f.createInvoke(JIT,"length",Type.INT,new Type[] {Type.INT,HEAP},Constants.INVOKESTATIC));
+					break;
+				case GETFIELD:
+					il.append(new PUSH(cp,x));
+					il.append(new ALOAD(h));
+					il.append(f.createInvoke(JIT,"load",Type.INT,new Type[] {Type.INT,Type.INT,HEAP},Constants.INVOKESTATIC));
+					break;
+				case PUTFIELD:
+					il.append(new PUSH(cp,x));
+					il.append(new ALOAD(h));
+					il.append(f.createInvoke(JIT,"putField",Type.VOID,new Type[] {Type.INT,Type.INT,Type.INT,HEAP},Constants.INVOKESTATIC));
+					break;
+				case GETSTATIC:
+					il.append(new PUSH(cp,u.cref));
+					il.append(new PUSH(cp,x));
+					il.append(new ALOAD(h));
+					il.append(f.createInvoke(JIT,"load",Type.INT,new Type[] {Type.INT,Type.INT,HEAP},Constants.INVOKESTATIC));
+					break;
+				case PUTSTATIC:
+					il.append(new PUSH(cp,u.cref));
+					il.append(new PUSH(cp,x));
+					il.append(new ALOAD(h));
+					il.append(f.createInvoke(JIT,"putStatic",Type.VOID,new Type[] {Type.INT,Type.INT,Type.INT,HEAP},Constants.INVOKESTATIC));
+					break;
+
+				//the branches get their targets once everything is there
+				case IF_ICMPEQ: branches[pc]=il.append(new IF_ICMPEQ(null)); break;
+				case IF_ICMPNE: branches[pc]=il.append(new IF_ICMPNE(null)); break;
+				case IF_ICMPLT: branches[pc]=il.append(new IF_ICMPLT(null)); break;
+				case IF_ICMPGE: branches[pc]=il.append(new IF_ICMPGE(null)); break;
+				case IF_ICMPGT: branches[pc]=il.append(new IF_ICMPGT(null)); break;
+				case IF_ICMPLE: branches[pc]=il.append(new IF_ICMPLE(null)); break;
+				case IFEQ: branches[pc]=il.append(new IFEQ(null)); break;
+				case IFNE: branches[pc]=il.append(new IFNE(null)); break;
+				case IFLT: branches[pc]=il.append(new IFLT(null)); break;
+				case IFGE: branches[pc]=il.append(new IFGE(null)); break;
+				case IFGT: branches[pc]=il.append(new IFGT(null)); break;
+				case IFLE: branches[pc]=il.append(new IFLE(null)); break;
+				case IFNULL:
+					//null is a ref with index 0, like the interpreter checks it
+					il.append(f.createInvoke("lava.type.Word","index",Type.INT,new Type[] {Type.INT},Constants.INVOKESTATIC));
+					branches[pc]=il.append(new IFEQ(null));
+					break;
+				case JMP: branches[pc]=il.append(new GOTO(null)); break;
+
+				case IRETURN: case ARETURN: il.append(InstructionConstants.IRETURN); break;
+				case RETURNV:
+					il.append(new PUSH(cp,0));
+					il.append(InstructionConstants.IRETURN);
+					break;
+				case INVOKESTATIC:
+					il.append(new ALOAD(h));
+					il.append(f.createInvoke(className(u.callee[pc]),"m",Type.INT,args(u.calleeParams[pc]),Constants.INVOKESTATIC));
+					if (u.calleeReturns[pc]==0) il.append(InstructionConstants.POP);
+					break;
+				default:
+					//collect() already checked for this
+					throw new IllegalStateException("the jit can't compile op "+Profiler.name(op));
+			}
+			at[pc] = end==null ? il.getStart() : end.getNext();
+		}
+
+		for (int pc=0;pc<b.length;pc++) {
+			if (branches[pc]!=null) branches[pc].setTarget(at[pc+Decoder.s2(b,pc+1)]);
+		}
+
+		String[] names = new String[u.params+1];
+		for (int i=0;i<u.params;i++) names[i]="l"+i;
+		names[u.params]="h";
+		MethodGen mg = new MethodGen(Constants.ACC_PUBLIC|Constants.ACC_STATIC,Type.INT,args(u.params),names,"m",name,il,cp);
+		mg.setMaxStack();
+		mg.setMaxLocals(u.locals+1);
+		org.apache.bcel.classfile.Method m = mg.getMethod();
+		il.dispose();
+		return m;
+	}
+
+	static String math(byte op) {
+		switch (op) {
+			case IADD: return "ADD";
+			case ISUB: return "SUB";
+			case IMUL: return "MUL";
+			case IDIV: return "DIV";
+			case ISHL: return "SHL";
+			default: return "REM";
+		}
+	}
+
+	//=====================================
+	//the compiled code calls these.  They are small enough for HotSpot to inline
+
+	public static int load(int ref,int i,Heap h) {
+		return h.arrayLoad(ref,i);
+	}
+
+	public static void store(int ref,int i,int v,Heap h) {
+		h.arrayStore(ref,i,v);
+	}
+
+	public static int length(int ref,Heap h) {
+		return h.getArrayLength(ref);
+	}
+
+	//the value is under the index, because that is how they are on the stack
+	public static void putField(int ref,int v,int i,Heap h) {
+		h.arrayStore(ref,i,v);
+	}
+
+	public static void putStatic(int v,int cref,int i,Heap h) {
+		h.arrayStore(cref,i,v);
+	}
+}
@@ -10,15 +10,16 @@ import java.util.Stack;
 
 public class MainFrame extends Frame {
 
-	//mx is 0
-	public MainFrame(Heap h,Word cref,boolean debug) {
-		super(h,cref,0,debug);
+	//mx is 0, and main is at the bottom of the stack
+	public MainFrame(Heap h,Word cref,int[] stack,boolean debug) {
+		super(h,stack,debug);
+		enter(cref,h.arrayLoad(cref,0),0);
 	}
 
 	public void passMainParams(String[] sa) {
-		log("MainFrame.passMainParams");
+		if (debug) log("MainFrame.passMainParams");
 		if (sa==null || sa.length==0) {
-			log("sa is null");
+			if (debug) log("sa is null");
 			return;
 		}
 		//create a string array
@@ -28,11 +29,11 @@ public class MainFrame extends Frame {
 		//store the strings on the heap
 		for (int i=0;i<sa.length;i++) {
 			Word sref=heap.storeAscii(Word.ASCII,sa[i].getBytes());
-			log("storing string to "+sref.toString());
+			if (debug) log("storing string to "+sref.toString());
 			heap.arrayStore(strArray,i,sref.toInt());
 		}
 
 		//store that in local
-		store(0,strArray);
+		store(0,strArray.toInt());
 	}
 }
\ No newline at end of file
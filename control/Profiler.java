@@ -0,0 +1,78 @@
+package lava.control;
+import lava.storage.IntMap;
+import lava.OpCodes;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+/**
+* The Profiler counts how often each pair and triple of ops runs one after the other.  The hottest ones
+* are the ones worth making into superinstructions in the Decoder.
+*
+* A pair is packed into a key as 1<<24 | op1<<8 | op2 and a triple as 2<<24 | op1<<16 | op2<<8 | op3,
+* so a key is never 0.
+*/
+public class Profiler {
+	IntMap pairs = new IntMap(256);
+	IntMap triples = new IntMap(256);
+	//the 2 ops before this one, or -1 at the start
+	int op1 = -1;
+	int op2 = -1;
+	long ops;
+
+	//the op names, taken from OpCodes
+	static String[] names = new String[256];
+	static {
+		Field[] fa = OpCodes.class.getFields();
+		for (int i=0;i<fa.length;i++) {
+			try {
+				if (fa[i].getType()==byte.class) names[fa[i].getByte(null) & 0xff]=fa[i].getName();
+			} catch (IllegalAccessException x) {
+				//they are all public
+			}
+		}
+	}
+
+	public static String name(int op) {
+		String s = names[op & 0xff];
+		return s==null ? Integer.toHexString(op & 0xff) : s;
+	}
+
+	public void count(byte op) {
+		int o = op & 0xff;
+		ops++;
+		if (op2>=0) {
+			int k = 1<<24 | op2<<8 | o;
+			pairs.put(k,pairs.get(k)+1);
+			if (op1>=0) {
+				k = 2<<24 | op1<<16 | op2<<8 | o;
+				triples.put(k,triples.get(k)+1);
+			}
+		}
+		op1=op2;
+		op2=o;
+	}
+
+	//print the n hottest pairs and triples
+	public void report(int n) {
+		System.out.println("[Profiler] "+ops+" ops");
+		System.out.println("[Profiler] hottest pairs:");
+		print(pairs,n);
+		System.out.println("[Profiler] hottest triples:");
+		print(triples,n);
+	}
+
+	//sort on the count, which is in the high half of a long, and print from the top
+	void print(IntMap m,int n) {
+		int[] ka = m.keys();
+		long[] la = new long[ka.length];
+		for (int i=0;i<ka.length;i++) {
+			la[i] = (long)m.get(ka[i])<<32 | ka[i];
+		}
+		Arrays.sort(la);
+		for (int i=la.length-1;i>=0 && i>=la.length-n;i--) {
+			int k = (int)la[i];
+			String s = (k>>>24)==2 ? name(k>>16)+" "+name(k>>8)+" "+name(k) : name(k>>8)+" "+name(k);
+			System.out.println("\t"+(la[i]>>>32)+"\t"+s);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package lava.control;
+import lava.storage.IntMap;
+import lava.type.Word;
+
+/**
+* Tiers decides when a method moves from the baseline loop, which runs the bytes and counts, to the
+* decoded loop, which is faster but has to decode the method first.
+*
+* Every call to a method is counted, and after invokeThreshold calls the method is promoted, so every
+* frame for it after that runs decoded code.  A frame that is already running doesn't see that, and main
+* only ever runs once, so the baseline loop also counts each time a loop jumps back, keyed by where it
+* jumps to.  After backedgeThreshold of those, the running frame is switched to the decoded code in the
+* middle of the loop (on-stack replacement).  Both loops use the same value stack, so only the pc has to
+* be moved.
+*
+* A listener can watch the promotions.
+*/
+public class Tiers {
+	public interface Listener {
+		//mref was promoted after count calls.  If offset isn't -1, a frame was replaced after count
+		//trips around the loop at that offset in the bytecode
+		void promoted(int mref,int count,int offset);
+	}
+
+	public final static int INVOKE_THRESHOLD = 100;
+	public final static int BACKEDGE_THRESHOLD = 1000;
+
+	Decoder decoder;
+	//the calls to each method, or -1 once it is promoted
+	IntMap invokes = new IntMap();
+	//the trips around each loop, keyed by the address of the instruction it jumps back to
+	IntMap backedges = new IntMap();
+	int invokeThreshold = INVOKE_THRESHOLD;
+	int backedgeThreshold = BACKEDGE_THRESHOLD;
+	Listener listener;
+	boolean debug;
+
+	public Tiers(Decoder d,boolean debug) {
+		this.decoder=d;
+		this.debug=debug;
+	}
+
+	public void log(String s) {
+		if (debug) System.out.println("[Tiers] "+s);
+	}
+
+	public void setInvokeThreshold(int n) {
+		if (n<1) throw new IllegalArgumentException("invalid invoke threshold "+n);
+		invokeThreshold=n;
+	}
+
+	public void setBackedgeThreshold(int n) {
+		if (n<1) throw new IllegalArgumentException("invalid backedge threshold "+n);
+		backedgeThreshold=n;
+	}
+
+	public void setListener(Listener l) {
+		listener=l;
+	}
+
+	//a frame is entering imref.  This returns the decoded code if it should run that, or null to run the bytes
+	public int[] enter(int imref) {
+		int n = invokes.get(imref);
+		if (n<0) return decoder.get(imref);
+		n++;
+		if (n<invokeThreshold) {
+			invokes.put(imref,n);
+			return null;
+		}
+		promote(imref,n,-1);
+		return decoder.get(imref);
+	}
+
+	//a frame running the bytes of imref jumped back to offset, which is at address in the heap.
+	//This returns the decoded code when it is time to replace the frame, and null until then
+	public int[] backedge(int imref,int address,int offset) {
+		int n = backedges.get(address)+1;
+		if (n<backedgeThreshold) {
+			backedges.put(address,n);
+			return null;
+		}
+		//another frame that is still running the bytes can count up again
+		backedges.put(address,0);
+		promote(imref,n,offset);
+		return decoder.get(imref);
+	}
+
+	void promote(int imref,int count,int offset) {
+		invokes.put(imref,-1);
+		if (debug) {
+			if (offset<0) log("promoting "+Word.toString(imref)+" after "+count+" calls");
+			else log("replacing a frame of "+Word.toString(imref)+" at "+offset+" after "+count+" loops");
+		}
+		if (listener!=null) listener.promoted(imref,count,offset);
+	}
+}
@@ -1,7 +1,8 @@
 package lava.loader;
+import lava.OpCodes;
 import lava.storage.Heap;
 import lava.type.Word;
-import java.util.Hashtable;
+import lava.storage.IntMap;
 import java.io.*;
 import org.apache.bcel.classfile.*;
 import org.apache.bcel.generic.*;
@@ -26,12 +27,19 @@ public class ClassLoader {
 	public final static byte CONSTANT_Methodref = (byte)10;
 
 	Heap heap;
-	Hashtable classMap;
+	//the ref of the interned class name -> cref
+	IntMap classMap;
+	//null unless -optimize
+	Optimizer optimizer;
+	//null unless -inline
+	Inliner inliner;
+	//null unless -concat
+	Concatenator concatenator;
 	boolean debug;
 
 	public ClassLoader(Heap h,boolean debug) {
 		heap = h;
-		classMap = new Hashtable();
+		classMap = new IntMap();
 		this.debug=debug;
 	}
 
@@ -39,6 +47,18 @@ public class ClassLoader {
 		if (debug) System.out.println(s);
 	}
 
+	public void setOptimize(boolean b) {
+		optimizer = b ? new Optimizer() : null;
+	}
+
+	public void setInline(boolean b) {
+		inliner = b ? new Inliner() : null;
+	}
+
+	public void setConcat(boolean b) {
+		concatenator = b ? new Concatenator() : null;
+	}
+
 	/**
 	* At this point, the classname must not have any packages.  And the name must not include
 	* the .class prefix, which this adds. The file must be in the working directory.
@@ -46,12 +66,13 @@ public class ClassLoader {
 	*/
 	public Word getClass(String className) throws IOException {
 		//first look in the classMap
-		Word r = (Word)classMap.get(className);
-		if (r==null) {
-			r=loadClass(className+".class");
-			classMap.put(className,r);
+		int cname = heap.intern(Word.EXTERNAL,className.getBytes());
+		int r = classMap.get(cname);
+		if (r==0) {
+			r=loadClass(className+".class").toInt();
+			classMap.put(cname,r);
 		}
-		return r;
+		return new Word(r);
 	}
 
 	/**
@@ -59,7 +80,7 @@ public class ClassLoader {
 	*
 	*/
 	public Word loadClass(String classFileName) throws IOException, ClassFormatException  {
-		log("loading class "+classFileName);
+		if (debug) log("loading class "+classFileName);
 		ClassParser classp = new ClassParser(classFileName);
 		JavaClass jclass = classp.parse();
 		//get the classname
@@ -68,10 +89,11 @@ public class ClassLoader {
 
 		//allocate the array for class items
 		Word cref = heap.createArray(Word.CLASS,64);
-		log("storing class '"+jcname+"' in "+cref.toString());
+		if (debug) log("storing class '"+jcname+"' in "+cref.toString());
 		loadFields(jclass, cnx,cref);
 		loadMethods(jclass,jcname, cnx,cref);
 		loadStrings(jclass.getConstantPool(),cref);
+		loadLongs(jclass.getConstantPool(),cref);
 		loadClassNames(jclass.getConstantPool(),cref);
 		loadExternalFields(jclass.getConstantPool(),cref);
 		loadExternalMethods(jclass.getConstantPool(),cref);
@@ -106,11 +128,11 @@ public class ClassLoader {
 
 			String external = cname + "." + fname + ":" + ftype;
 
-			Word fref = heap.storeAscii(Word.EXTERNAL,external.getBytes());
-			log("storing bytes of ('"+external+"') in "+fref.toString());
+			int fref = heap.intern(Word.EXTERNAL,external.getBytes());
+			if (debug) log("storing bytes of ('"+external+"') in "+Word.toString(fref));
 			//save the ref in the class array
-			heap.arrayStore(cref,cpx,fref.toInt());
-			log("storing fieldref for "+external+" in class index "+cpx);
+			heap.arrayStore(cref,cpx,fref);
+			if (debug) log("storing fieldref for "+external+" in class index "+cpx);
 		}
 	}
 
@@ -133,7 +155,7 @@ public class ClassLoader {
 				}
 			}
 		}
-		log("no match found for "+fname);
+		if (debug) log("no match found for "+fname);
 		return -1;	//invalid
 	}
 	//-------------------------------------------
@@ -141,6 +163,7 @@ public class ClassLoader {
 	//this only loads methods in the current class.  What about in other classes?
 	public void loadMethods(JavaClass jclass,String cname,int cnx,Word cref) {
 		Method[] ma = jclass.getMethods();
+		if (inliner!=null) addCallees(jclass,cname,cnx,ma);
 		for (int i=0;i<ma.length;i++) {
 			Method m = ma[i];
 			//get the name
@@ -149,21 +172,80 @@ public class ClassLoader {
 			//get cpindex
 			int cpx = getMethodPoolIndex(jclass.getConstantPool(),cname, cnx,mname, mnx);
 			if (cpx<0) {
-				throw new IllegalStateException("no pool entry found for "+mname);
+				//javac doesn't put a methodref in the pool for a method nobody calls, like the default <init>
+				//so there is no slot to put it in.  Nothing can invoke it anyway
+				if (debug) log("no pool entry found for "+mname+", skipping it");
+				continue;
 			}
 			if (cpx>63) {
 				throw new IllegalStateException("the class array can't store index "+cpx);
 			}
-			//get params
-			int params = m.getArgumentTypes().length;
-			//get the code
-			byte[] mcode = m.getCode().getCode();
+			//get params.  This is the number of slots, because a long or double takes 2
+			Type[] ptypes = m.getArgumentTypes();
+			int params = 0;
+			for (int j=0;j<ptypes.length;j++) {
+				params = params + ptypes[j].getSize();
+			}
+			//get the code, and the max_stack and max_locals so the frame can size its arrays
+			Code code = m.getCode();
+			byte[] mcode = code.getCode();
+			int maxStack = code.getMaxStack();
+			int maxLocals = code.getMaxLocals();
+			if (inliner!=null && code.getExceptionTable().length==0) {
+				mcode = inliner.inline(mcode,maxLocals,maxStack);
+				maxStack = inliner.getMaxStack();
+				maxLocals = inliner.getMaxLocals();
+				if (debug && inliner.getCount()>0) {
+					log("[inliner] "+cname+"."+mname+": inlined "+inliner.getCount()+" calls");
+				}
+			}
+			if (concatenator!=null && code.getExceptionTable().length==0) {
+				mcode = concatenator.fuse(mcode,jclass.getConstantPool(),maxStack);
+				maxStack = concatenator.getMaxStack();
+				if (debug && concatenator.getCount()>0) {
+					log("[concat] "+cname+"."+mname+": fused "+concatenator.getCount()+" StringBuilder chains");
+				}
+			}
+			//the optimizer doesn't know about handlers, so it leaves alone a method that has them
+			if (optimizer!=null && code.getExceptionTable().length==0) {
+				mcode = optimizer.optimize(mcode);
+				if (debug && optimizer.getBefore()>optimizer.getAfter()) {
+					log("[optimizer] "+cname+"."+mname+": "+optimizer.getBefore()+" -> "+optimizer.getAfter()+" instructions");
+				}
+			}
 			//save the byte code in the bheap
-			Word mref = heap.storeMethod(params,mcode);
-			log("storing '"+mname+"' code in "+mref.toString());
+			int flags = m.isStatic() ? Heap.ACC_STATIC : 0;
+			Word mref = heap.storeMethod(params,maxStack,maxLocals,m.getReturnType().getSize(),flags,mcode);
+			if (debug) log("storing '"+mname+"' code in "+mref.toString());
 			//save the ref in the class array
 			heap.arrayStore(cref,cpx,mref.toInt());
-			log("storing methodref for "+mname+" in class index "+cpx);
+			if (debug) log("storing methodref for "+mname+" in class index "+cpx);
+		}
+	}
+
+	//give the inliner the methods that a call can only mean one way.  Every loop binds a call to the
+	//method in this class, so those are the static, private and final ones
+	void addCallees(JavaClass jclass,String cname,int cnx,Method[] ma) {
+		inliner.clear();
+		for (int i=0;i<ma.length;i++) {
+			Method m = ma[i];
+			Code code = m.getCode();
+			if (code==null || code.getExceptionTable().length>0) continue;
+			if (!m.isStatic() && !m.isPrivate() && !m.isFinal() && !jclass.isFinal()) continue;
+			int cpx = getMethodPoolIndex(jclass.getConstantPool(),cname,cnx,m.getName(),m.getNameIndex());
+			if (cpx<0 || cpx>63) continue;
+			Type[] ptypes = m.getArgumentTypes();
+			byte[] stores = new byte[ptypes.length+(m.isStatic() ? 0 : 1)];
+			int s = 0;
+			if (!m.isStatic()) stores[s++]=OpCodes.ASTORE;
+			for (int j=0;j<ptypes.length;j++) {
+				if (ptypes[j]==Type.DOUBLE) stores[s++]=OpCodes.DSTORE;
+				else if (ptypes[j]==Type.LONG) stores[s++]=OpCodes.LSTORE;
+				else if (ptypes[j] instanceof ReferenceType) stores[s++]=OpCodes.ASTORE;
+				else stores[s++]=OpCodes.ISTORE;
+			}
+			inliner.add(cpx,code.getCode(),code.getMaxLocals(),code.getMaxStack(),stores,m.isStatic());
+			if (debug) log("the inliner can use "+m.getName()+" at class index "+cpx);
 		}
 	}
 
@@ -175,13 +257,14 @@ public class ClassLoader {
 	*	that matches.
 	*/
 	public int getMethodPoolIndex(ConstantPool cpool,String cname,int cnx,String mname,int mnx) {
-		log("getMethodPoolIndex: looking for a method '"+mname+"' in class '"+cname+"' with cnx="+cnx+" and mnx="+mnx);
+		if (debug) log("getMethodPoolIndex: looking for a method '"+mname+"' in class '"+cname+"' with cnx="+cnx+" and mnx="+mnx);
 		//put the main method in slot 0
 		if (mname.equals("main")) return 0;
 		for (int i=1;i<cpool.getLength();i++) {
 			Constant k = cpool.getConstant(i);
-			byte tag=k.getTag();
-			if (k!=null && (k instanceof ConstantMethodref)) {
+			//the entry after a long or double is null
+			if (k==null) continue;
+			if (k instanceof ConstantMethodref) {
 				ConstantMethodref cmr = (ConstantMethodref)k;
 				//we need to check the class because of <init>
 				int cx = cmr.getClassIndex();
@@ -194,7 +277,7 @@ public class ClassLoader {
 					return i;
 				} else if (nx==mnx) {
 					//method name matches but class doesn't
-					log("getMethodPoolIndex: found a match on '"+mname+"' but it is the wrong class ("+cx+", '"+cname2+"')");
+					if (debug) log("getMethodPoolIndex: found a match on '"+mname+"' but it is the wrong class ("+cx+", '"+cname2+"')");
 					//let's try to recover
 					//if (mname.equals("<init>")) {
 					//	if (cname2.equals("java/lang/Object") || cname2.equals("java.lang.Object")) {
@@ -205,7 +288,7 @@ public class ClassLoader {
 				}
 			}
 		}
-		log("no match found for "+mname);
+		if (debug) log("no match found for "+mname);
 		return -1;	//invalid
 	}
 
@@ -217,12 +300,34 @@ public class ClassLoader {
 				//get the value
 				String str = cs.getBytes(cpool);
 				//save the byte code in the bheap
-				Word sref = heap.storeAscii(Word.ASCII,str.getBytes());
-				log("storing bytes of ascii ('"+trunc(str)+"') in "+sref.toString());
+				int sref = heap.intern(Word.ASCII,str.getBytes());
+				if (debug) log("storing bytes of ascii ('"+trunc(str)+"') in "+Word.toString(sref));
 				//save the ref in the class array
-				heap.arrayStore(cref,i,sref.toInt());
-				log("storing ref to ascii('"+trunc(str)+"') in class index "+i);
+				heap.arrayStore(cref,i,sref);
+				if (debug) log("storing ref to ascii('"+trunc(str)+"') in class index "+i);
+			}
+		}
+	}
+
+	//a long or double constant takes 2 pool entries, so there is room for both ints.
+	//the high int goes in i and the low int in i+1.  A double is stored as its bits
+	public void loadLongs(ConstantPool cpool,Word cref) {
+		for (int i=1;i<cpool.getLength();i++) {
+			Constant k = cpool.getConstant(i);
+			long v;
+			if (k instanceof ConstantLong) {
+				v = ((ConstantLong)k).getBytes();
+			} else if (k instanceof ConstantDouble) {
+				v = Double.doubleToRawLongBits(((ConstantDouble)k).getBytes());
+			} else {
+				continue;
+			}
+			if (i>62) {
+				throw new IllegalStateException("the class array can't store index "+i);
 			}
+			heap.arrayStore(cref,i,(int)(v>>>32));
+			heap.arrayStore(cref,i+1,(int)v);
+			if (debug) log("storing "+k+" in class index "+i);
 		}
 	}
 
@@ -247,10 +352,10 @@ public class ClassLoader {
 				//get the value
 				String cname = cc.getBytes(cpool);
 				//save the byte code in the bheap
-				Word sref = heap.storeAscii(Word.EXTERNAL,cname.getBytes());
+				int sref = heap.intern(Word.EXTERNAL,cname.getBytes());
 				//save the ref in the class array
-				heap.arrayStore(cref,i,sref.toInt());
-				log("storing value of class ('"+cname+"') in class index "+i);
+				heap.arrayStore(cref,i,sref);
+				if (debug) log("storing value of class ('"+cname+"') in class index "+i);
 			}
 		}
 	}
@@ -278,10 +383,10 @@ public class ClassLoader {
 
 				String external = cname + "." + fname + ":" + fsig;
 				//save the external name as an ascii
-				Word sref = heap.storeAscii(Word.EXTERNAL,external.getBytes());
-				log("storing bytes of ('"+external+"') in "+sref.toString());
-				heap.arrayStore(cref,i,sref.toInt());
-				log("storing external field name ('"+external+"') in class index "+i);
+				int sref = heap.intern(Word.EXTERNAL,external.getBytes());
+				if (debug) log("storing bytes of ('"+external+"') in "+Word.toString(sref));
+				heap.arrayStore(cref,i,sref);
+				if (debug) log("storing external field name ('"+external+"') in class index "+i);
 			}
 		}
 	}
@@ -315,10 +420,10 @@ public class ClassLoader {
 
 				String external = cname + "." + mname + ":" + msig;
 				//save the external name as an ascii
-				Word sref = heap.storeAscii(Word.EXTERNAL,external.getBytes());
-				log("storing bytes of ('"+external+"') in "+sref.toString());
-				heap.arrayStore(cref,i,sref.toInt());
-				log("storing external method name ('"+external+"') in class index "+i);
+				int sref = heap.intern(Word.EXTERNAL,external.getBytes());
+				if (debug) log("storing bytes of ('"+external+"') in "+Word.toString(sref));
+				heap.arrayStore(cref,i,sref);
+				if (debug) log("storing external method name ('"+external+"') in class index "+i);
 			}
 		}
 	}
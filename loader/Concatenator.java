@@ -0,0 +1,172 @@
+package lava.loader;
+import lava.control.Decoder;
+import lava.control.Engine;
+import lava.OpCodes;
+import org.apache.bcel.classfile.*;
+
+/**
+* The Concatenator finds the StringBuilder chains that javac makes for "The result is "+result, like
+*	new StringBuilder, dup, invokespecial <init>
+*	the code for a part, invokevirtual append		(once for each part)
+*	invokevirtual toString
+* and turns each one into just the code for the parts and then one CONCAT.  So there is no object, no
+* array and no copying one int at a time.  CONCAT writes the string straight into the byte heap.
+*
+* This only works if the builder doesn't escape, which is when the only thing that ever touches it is
+* the chain.  So the code for a part has to be straight-line code that leaves one thing on the stack,
+* made of ops that are known not to reach under it.  A builder that is stored in a local, or has a
+* branch in the middle of it, or appends something other than a String or an int, is left alone.
+*
+* The parts stay on the stack until the CONCAT, where the builder used to be one slot, so max_stack
+* grows by the number of parts.
+*/
+public class Concatenator implements OpCodes {
+	//the CONCAT operand has room for this many parts
+	public final static int MAX_PARTS = 15;
+	public final static String SB = "java/lang/StringBuilder";
+
+	ConstantPool cpool;
+	int maxStack;
+	//the most parts in a chain
+	int extra;
+	int count;
+
+	public int getMaxStack() {return maxStack+extra;}
+	//the number of chains in the last method
+	public int getCount() {return count;}
+
+	//this returns the code with the chains fused, or code itself if there weren't any
+	public byte[] fuse(byte[] b,ConstantPool cpool,int maxStack) {
+		this.cpool=cpool;
+		this.maxStack=maxStack;
+		extra=0;
+		count=0;
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			if (!Optimizer.known(b[pc])) return b;
+		}
+		boolean[] t = Decoder.targets(b);
+		//what each instruction becomes.  0 is dropped, -1 is kept, and anything else is a CONCAT operand
+		int[] to = new int[b.length];
+		for (int i=0;i<b.length;i++) to[i]=-1;
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			if (b[pc]==NEWOBJ && SB.equals(className(Decoder.u2(b,pc+1)))) {
+				int end = chain(b,t,pc,to);
+				if (end>0) pc=end;
+			}
+		}
+		if (count==0) return b;
+		return encode(b,to);
+	}
+
+	//see if there is a chain at pc, and mark what it becomes in to.  This returns the toString, or -1
+	int chain(byte[] b,boolean[] t,int pc,int[] to) {
+		int p = pc+3;
+		if (p+4>b.length || b[p]!=DUP || t[p]) return -1;
+		p++;
+		if (b[p]!=INVOKESPECIAL || t[p] || !Engine.SB_INIT.equals(methodName(Decoder.u2(b,p+1)))) return -1;
+		p=p+3;
+		int[] appends = new int[MAX_PARTS];
+		int parts = 0;
+		int ints = 0;
+		while (true) {
+			//the code for the next part.  It can't reach under where it started, which is the builder
+			int depth = 0;
+			while (p<b.length && b[p]!=INVOKEVIRTUAL) {
+				if (t[p]) return -1;
+				int pops = pops(b[p]);
+				if (pops<0 || depth<pops) return -1;
+				depth = depth-pops+pushes(b[p]);
+				p=p+Decoder.length(b,p);
+			}
+			if (p==b.length || t[p]) return -1;
+			String name = methodName(Decoder.u2(b,p+1));
+			if (Engine.SB_TOSTR.equals(name) && depth==0) break;
+			if (depth!=1 || parts==MAX_PARTS) return -1;
+			if (Engine.SB_APPEND_I.equals(name)) ints = ints | 1<<parts;
+			else if (!Engine.SB_APPEND_STR.equals(name)) return -1;
+			appends[parts++]=p;
+			p=p+3;
+		}
+
+		to[pc]=0;
+		to[pc+3]=0;
+		to[pc+4]=0;
+		for (int i=0;i<parts;i++) to[appends[i]]=0;
+		to[p]=1<<parts | ints;
+		count++;
+		extra = Math.max(extra,parts);
+		return p;
+	}
+
+	//how many the code for a part can pop, or -1 if it can't have the op at all
+	static int pops(byte op) {
+		switch (op) {
+			case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+			case ICONST_3: case ICONST_4: case ICONST_5:
+			case BIPUSH: case SIPUSH: case LDC: case GETSTATIC: case IINC:
+			case ILOAD_0: case ILOAD_1: case ILOAD_2: case ILOAD_3: case ILOAD:
+			case ALOAD_0: case ALOAD_1: case ALOAD_2: case ALOAD_3: case ALOAD:
+				return 0;
+			case INEG: case DUP: case GETFIELD: case ARRAYLENGTH: case CHECKCAST:
+				return 1;
+			case IADD: case ISUB: case IMUL: case IDIV: case IREM: case ISHL:
+			case IALOAD: case AALOAD:
+				return 2;
+			default:
+				return -1;
+		}
+	}
+
+	static int pushes(byte op) {
+		switch (op) {
+			case IINC: return 0;
+			case DUP: return 2;
+			default: return 1;
+		}
+	}
+
+	//put it back together, with the branches moved
+	static byte[] encode(byte[] b,int[] to) {
+		//where each old instruction starts in the new code.  A dropped one starts where the next one does
+		int[] at = new int[b.length+1];
+		int len = 0;
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			at[pc]=len;
+			if (to[pc]!=0) len=len+Decoder.length(b,pc);
+		}
+		at[b.length]=len;
+		byte[] c = new byte[len];
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			int n = at[pc];
+			if (to[pc]==0) continue;
+			if (to[pc]>0) {
+				c[n]=CONCAT;
+				c[n+1]=(byte)(to[pc]>>8);
+				c[n+2]=(byte)to[pc];
+				continue;
+			}
+			System.arraycopy(b,pc,c,n,Decoder.length(b,pc));
+			if (Decoder.isBranch(b[pc])) {
+				int d = at[pc+Decoder.s2(b,pc+1)]-n;
+				c[n+1]=(byte)(d>>8);
+				c[n+2]=(byte)d;
+			}
+		}
+		return c;
+	}
+
+	String className(int idx) {
+		Constant k = idx<cpool.getLength() ? cpool.getConstant(idx) : null;
+		if (!(k instanceof ConstantClass)) return null;
+		return ((ConstantClass)k).getBytes(cpool);
+	}
+
+	//the same external name the ClassLoader gives a method, like java/lang/StringBuilder.toString:()Ljava/lang/String;
+	String methodName(int idx) {
+		Constant k = idx<cpool.getLength() ? cpool.getConstant(idx) : null;
+		if (!(k instanceof ConstantMethodref)) return null;
+		ConstantMethodref cmr = (ConstantMethodref)k;
+		ConstantNameAndType cnat = (ConstantNameAndType)cpool.getConstant(cmr.getNameAndTypeIndex());
+		return className(cmr.getClassIndex())+"."+cnat.getName(cpool)+":"+cnat.getSignature(cpool);
+	}
+}
@@ -0,0 +1,228 @@
+package lava.loader;
+import lava.control.Decoder;
+import lava.OpCodes;
+import java.util.ArrayList;
+
+/**
+* The Inliner copies small methods into the methods that call them, so a call to a getter or a little
+* math helper doesn't cost a frame.  The ClassLoader gives it every method in the class first, and then
+* has it rewrite each method's bytecode before storing it, so every loop runs the inlined code.
+*
+* A call is inlined when the method it calls
+*	is in this class, and is static, private or final, so there is only one method it can be
+*	is at most MAX_SIZE bytes
+*	only calls methods that can be inlined themselves, MAX_DEPTH deep.  So a recursive method never is
+* and the caller still fits in the heap afterwards, which is MAX_CODE bytes.
+*
+* The call becomes stores of the args, last first, into locals past the caller's own, then the body of
+* the method with its locals moved up past the caller's, and each return becomes a jump to the
+* instruction after the call.  The return value is left on the stack, like the return op would leave it.
+* The caller's max_locals and max_stack grow to make room.
+*/
+public class Inliner implements OpCodes {
+	public final static int MAX_SIZE = 35;
+	public final static int MAX_DEPTH = 3;
+	//the heap can't store a longer method, or more locals
+	public final static int MAX_CODE = 255;
+
+	//a method that could be inlined, by the pool index that calls use
+	static class Callee {
+		byte[] code;
+		int maxLocals;
+		int maxStack;
+		//the op that stores each param, first to last, with the receiver first if there is one
+		byte[] stores;
+		boolean isStatic;
+	}
+
+	//one instruction.  A branch points at the instruction it goes to
+	static class Ins {
+		byte[] b;
+		Ins target;
+		int pc;
+		Ins(byte[] b) {this.b=b;}
+	}
+
+	Callee[] callees = new Callee[64];
+	int maxLocals;
+	int maxStack;
+	int count;
+
+	public int getMaxLocals() {return maxLocals;}
+	public int getMaxStack() {return maxStack;}
+	//the number of calls inlined into the last method
+	public int getCount() {return count;}
+
+	//forget the last class
+	public void clear() {
+		callees = new Callee[64];
+	}
+
+	//cpx is the pool index of the method.  Only a method that can't be overridden is given here
+	public void add(int cpx,byte[] code,int maxLocals,int maxStack,byte[] stores,boolean isStatic) {
+		if (code.length>MAX_SIZE) return;
+		Callee c = new Callee();
+		c.code=code;
+		c.maxLocals=maxLocals;
+		c.maxStack=maxStack;
+		c.stores=stores;
+		c.isStatic=isStatic;
+		callees[cpx]=c;
+	}
+
+	//this returns the code with the calls inlined, or code itself if there weren't any
+	public byte[] inline(byte[] code,int maxLocals,int maxStack) {
+		this.maxLocals=maxLocals;
+		this.maxStack=maxStack;
+		count=0;
+		ArrayList<Ins> list = parse(code,0,null);
+		if (list==null) return code;
+		expand(list,maxLocals,maxStack,1);
+		if (count==0) return code;
+		return encode(list);
+	}
+
+	//inline the calls in list.  In a body that is being inlined every call has to be inlined, so this
+	//returns false if one can't be
+	boolean expand(ArrayList<Ins> list,int base,int stackBase,int depth) {
+		for (int i=0;i<list.size();i++) {
+			Ins in = list.get(i);
+			byte op = in.b[0];
+			if (op!=INVOKESTATIC && op!=INVOKEVIRTUAL && op!=INVOKESPECIAL) continue;
+			int cpx = Decoder.u2(in.b,1);
+			Callee c = cpx<callees.length ? callees[cpx] : null;
+			ArrayList<Ins> body = null;
+			Ins end = new Ins(null);
+			if (c!=null && c.isStatic==(op==INVOKESTATIC) && depth<=MAX_DEPTH && base+c.maxLocals<=MAX_CODE && stackBase+c.maxStack<=MAX_CODE) {
+				body = parse(c.code,base,end);
+				if (body!=null && !expand(body,base+c.maxLocals,stackBase+c.maxStack,depth+1)) body=null;
+			}
+			if (body==null) {
+				if (depth>1) return false;
+				continue;
+			}
+
+			//the args are on the stack with the last one on top
+			ArrayList<Ins> site = new ArrayList<Ins>();
+			int slot = base;
+			int[] slots = new int[c.stores.length];
+			for (int k=0;k<c.stores.length;k++) {
+				slots[k]=slot;
+				slot = slot + (c.stores[k]==LSTORE || c.stores[k]==DSTORE ? 2 : 1);
+			}
+			for (int k=c.stores.length-1;k>=0;k--) {
+				site.add(new Ins(new byte[] {c.stores[k],(byte)slots[k]}));
+			}
+			site.addAll(body);
+
+			//the returns go to the instruction after the call.  A call is never last
+			Ins next = list.get(i+1);
+			for (Ins x : site) {
+				if (x.target==end) x.target=next;
+			}
+			Ins last = site.get(site.size()-1);
+			if (last.b[0]==JMP && last.target==next) {
+				site.remove(site.size()-1);
+				for (Ins x : site) {
+					if (x.target==last) x.target=next;
+				}
+			}
+			if (depth==1 && size(list)-in.b.length+size(site)>MAX_CODE) continue;
+			Ins first = site.isEmpty() ? next : site.get(0);
+			for (Ins x : list) {
+				if (x.target==in) x.target=first;
+			}
+			list.remove(i);
+			list.addAll(i,site);
+			i = i + site.size() - 1;
+
+			if (depth==1) count++;
+			maxLocals = Math.max(maxLocals,base+c.maxLocals);
+			maxStack = Math.max(maxStack,stackBase+c.maxStack);
+		}
+		return true;
+	}
+
+	//take the code apart, with its locals moved up by base.  If end isn't null, the returns become jumps
+	//to it.  This returns null if the code has an op it doesn't know
+	static ArrayList<Ins> parse(byte[] b,int base,Ins end) {
+		int[] at = new int[b.length];
+		ArrayList<Ins> list = new ArrayList<Ins>();
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			if (!Optimizer.known(b[pc])) return null;
+			at[pc]=list.size();
+			byte[] x = new byte[Decoder.length(b,pc)];
+			System.arraycopy(b,pc,x,0,x.length);
+			list.add(new Ins(x));
+		}
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			Ins in = list.get(at[pc]);
+			if (Decoder.isBranch(b[pc])) in.target=list.get(at[pc+Decoder.s2(b,pc+1)]);
+			if (end==null) continue;
+			switch (b[pc]) {
+				case IRETURN: case ARETURN: case LRETURN: case DRETURN: case RETURNV:
+					in.b=new byte[] {JMP,0,0};
+					in.target=end;
+					break;
+				default:
+					if (base>0) in.b=move(in.b,base);
+			}
+		}
+		return list;
+	}
+
+	static int size(ArrayList<Ins> list) {
+		int n = 0;
+		for (Ins in : list) n=n+in.b.length;
+		return n;
+	}
+
+	//move the local an instruction uses up by base.  base plus the method's max_locals is at most 255,
+	//so the short forms become the forms with a byte operand and nothing needs WIDE
+	static byte[] move(byte[] b,int base) {
+		byte op = b[0];
+		if (op==WIDE) {
+			int n = Decoder.u2(b,2)+base;
+			byte[] w = b.clone();
+			w[2]=(byte)(n>>8);
+			w[3]=(byte)n;
+			return w;
+		}
+		if (op>=ILOAD_0 && op<=ILOAD_3) return new byte[] {ILOAD,(byte)(op-ILOAD_0+base)};
+		if (op>=LLOAD_0 && op<=LLOAD_3) return new byte[] {LLOAD,(byte)(op-LLOAD_0+base)};
+		if (op>=DLOAD_0 && op<=DLOAD_3) return new byte[] {DLOAD,(byte)(op-DLOAD_0+base)};
+		if (op>=ALOAD_0 && op<=ALOAD_3) return new byte[] {ALOAD,(byte)(op-ALOAD_0+base)};
+		if (op>=ISTORE_0 && op<=ISTORE_3) return new byte[] {ISTORE,(byte)(op-ISTORE_0+base)};
+		if (op>=LSTORE_0 && op<=LSTORE_3) return new byte[] {LSTORE,(byte)(op-LSTORE_0+base)};
+		if (op>=DSTORE_0 && op<=DSTORE_3) return new byte[] {DSTORE,(byte)(op-DSTORE_0+base)};
+		if (op>=ASTORE_0 && op<=ASTORE_3) return new byte[] {ASTORE,(byte)(op-ASTORE_0+base)};
+		switch (op) {
+			case ILOAD: case LLOAD: case DLOAD: case ALOAD:
+			case ISTORE: case LSTORE: case DSTORE: case ASTORE: case IINC:
+				byte[] x = b.clone();
+				x[1]=(byte)((b[1] & 0xff)+base);
+				return x;
+			default:
+				return b;
+		}
+	}
+
+	//put it back together.  It is at most MAX_CODE long, so every branch fits
+	static byte[] encode(ArrayList<Ins> list) {
+		int len = 0;
+		for (Ins in : list) {
+			in.pc=len;
+			len=len+in.b.length;
+		}
+		byte[] b = new byte[len];
+		for (Ins in : list) {
+			System.arraycopy(in.b,0,b,in.pc,in.b.length);
+			if (in.target!=null) {
+				int d = in.target.pc-in.pc;
+				b[in.pc+1]=(byte)(d>>8);
+				b[in.pc+2]=(byte)d;
+			}
+		}
+		return b;
+	}
+}
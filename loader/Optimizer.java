@@ -0,0 +1,396 @@
+package lava.loader;
+import lava.control.Decoder;
+import lava.OpCodes;
+import java.util.BitSet;
+
+/**
+* The Optimizer is an optional pass over each method's bytecode when the ClassLoader loads it.  It does
+* what javac doesn't:
+*	constant folding, ICONST_2 ICONST_3 IADD becomes ICONST_5
+*	strength reduction, x*8 becomes x<<3, and x*1, x+0 and x-0 go away
+*	branch threading, a branch to a JMP goes straight to where the JMP goes, and a JMP to the next
+*		instruction goes away
+*	unreachable code goes away
+*	dead stores, a store to a local that isn't read again becomes a POP, and an iinc of one goes away
+*	cleanup, a push followed by a POP goes away, and so does a store and then a load of the same local
+*		when the local isn't read again
+*
+* The method is taken apart into a list of instructions, the passes rewrite them or mark them gone, and it
+* is put back together with new branch offsets.  They go around until nothing changes.  An instruction
+* only goes away if skipping it doesn't change anything, so a branch to one just goes to the next one
+* that is left.  A fold only happens when the answer fits in a short, so it's the same in both math modes.
+*
+* A method with an op this doesn't know the length of is left alone.  The ClassLoader also leaves alone
+* a method with exception handlers.
+*/
+public class Optimizer implements OpCodes {
+	//the method, as a list of instructions
+	byte[][] ins;		//the bytes of each one, with its operands
+	int[] target;		//the instruction a branch goes to, or -1
+	boolean[] gone;
+	boolean[] isTarget;
+	int n;
+	//what the last method went from and to
+	int before;
+	int after;
+
+	public int getBefore() {return before;}
+	public int getAfter() {return after;}
+
+	//this returns the optimized code, or b itself if it can't be optimized
+	public byte[] optimize(byte[] b) {
+		if (!parse(b)) {
+			before=0;
+			after=0;
+			return b;
+		}
+		before=n;
+		boolean changed = true;
+		boolean any = false;
+		for (int round=0;changed && round<10;round++) {
+			changed = fold();
+			changed = reduce() | changed;
+			changed = thread() | changed;
+			changed = unreachable() | changed;
+			changed = deadStores() | changed;
+			changed = cleanup() | changed;
+			any = any | changed;
+		}
+		after=0;
+		for (int i=0;i<n;i++) if (!gone[i]) after++;
+		return any ? encode() : b;
+	}
+
+	//====================================
+	//taking it apart and putting it back together
+
+	boolean parse(byte[] b) {
+		int[] at = new int[b.length];
+		n=0;
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			if (!known(b[pc])) return false;
+			at[pc]=n++;
+		}
+		ins = new byte[n][];
+		target = new int[n];
+		gone = new boolean[n];
+		isTarget = new boolean[n];
+		int i=0;
+		for (int pc=0;pc<b.length;pc=pc+Decoder.length(b,pc)) {
+			ins[i] = new byte[Decoder.length(b,pc)];
+			System.arraycopy(b,pc,ins[i],0,ins[i].length);
+			target[i] = Decoder.isBranch(b[pc]) ? at[pc+Decoder.s2(b,pc+1)] : -1;
+			i++;
+		}
+		return true;
+	}
+
+	//the ops that Decoder.length gets wrong, because the engine doesn't run them
+	static boolean known(byte op) {
+		switch (op) {
+			case (byte)0x13:	//ldc_w
+			case (byte)0x17: case (byte)0x38:	//fload and fstore
+			case IF_ACMPEQ: case (byte)0xA6: case IFNONNULL:
+			case (byte)0xA8: case (byte)0xA9: case (byte)0xC8: case (byte)0xC9:	//jsr, ret, goto_w, jsr_w
+			case (byte)0xAA: case (byte)0xAB:	//tableswitch and lookupswitch
+			case (byte)0xB9: case (byte)0xBA:	//invokeinterface and invokedynamic
+			case (byte)0xC0: case (byte)0xC1: case (byte)0xC5:	//checkcast is CHECKCAST, but instanceof and multianewarray aren't
+				return op==CHECKCAST;
+			default:
+				return true;
+		}
+	}
+
+	byte[] encode() {
+		resolve();
+		int[] off = new int[n];
+		int len = 0;
+		for (int i=0;i<n;i++) {
+			if (gone[i]) continue;
+			off[i]=len;
+			len=len+ins[i].length;
+		}
+		byte[] b = new byte[len];
+		for (int i=0;i<n;i++) {
+			if (gone[i]) continue;
+			System.arraycopy(ins[i],0,b,off[i],ins[i].length);
+			if (target[i]>=0) {
+				int d = off[target[i]]-off[i];
+				b[off[i]+1]=(byte)(d>>8);
+				b[off[i]+2]=(byte)d;
+			}
+		}
+		return b;
+	}
+
+	//the next instruction that is still there, or n
+	int next(int i) {
+		i++;
+		while (i<n && gone[i]) i++;
+		return i;
+	}
+
+	//point the branches at instructions that are still there, and work out which ones are targets
+	void resolve() {
+		for (int i=0;i<n;i++) isTarget[i]=false;
+		for (int i=0;i<n;i++) {
+			if (gone[i] || target[i]<0) continue;
+			if (gone[target[i]]) target[i]=next(target[i]);
+			isTarget[target[i]]=true;
+		}
+	}
+
+	byte op(int i) {
+		return ins[i][0]==WIDE ? ins[i][1] : ins[i][0];
+	}
+
+	boolean isConst(int i) {
+		byte op = ins[i][0];
+		return (op>=ICONST_M1 && op<=ICONST_5) || op==BIPUSH || op==SIPUSH;
+	}
+
+	int value(int i) {
+		byte op = ins[i][0];
+		if (op==BIPUSH) return ins[i][1];
+		if (op==SIPUSH) return Decoder.s2(ins[i],1);
+		return op-ICONST_0;
+	}
+
+	//the shortest way to push v, which fits in a short
+	static byte[] push(int v) {
+		if (v>=-1 && v<=5) return new byte[] {(byte)(ICONST_0+v)};
+		if (v>=-128 && v<=127) return new byte[] {BIPUSH,(byte)v};
+		return new byte[] {SIPUSH,(byte)(v>>8),(byte)v};
+	}
+
+	static boolean fits(long v) {
+		return v>=-32768 && v<=32767;
+	}
+
+	//====================================
+	//the passes.  Each returns true if it changed anything
+
+	//c1 c2 op -> c, and c INEG -> -c
+	boolean fold() {
+		resolve();
+		boolean changed = false;
+		for (int i=0;i<n;i++) {
+			if (gone[i] || !isConst(i)) continue;
+			int j = next(i);
+			if (j==n || isTarget[j]) continue;
+			if (op(j)==INEG) {
+				if (!fits(-value(i))) continue;
+				ins[i]=push(-value(i));
+				gone[j]=true;
+				changed=true;
+				continue;
+			}
+			if (!isConst(j)) continue;
+			int k = next(j);
+			if (k==n || isTarget[k]) continue;
+			long a = value(i);
+			long c = value(j);
+			long r;
+			switch (op(k)) {
+				case IADD: r=a+c; break;
+				case ISUB: r=a-c; break;
+				case IMUL: r=a*c; break;
+				case IDIV: if (c==0) continue; r=a/c; break;
+				case IREM: if (c==0) continue; r=a%c; break;
+				default: continue;
+			}
+			if (!fits(r)) continue;
+			ins[i]=push((int)r);
+			gone[j]=true;
+			gone[k]=true;
+			changed=true;
+		}
+		return changed;
+	}
+
+	//x*1, x+0 and x-0 go away, and x*2^n -> x<<n
+	boolean reduce() {
+		resolve();
+		boolean changed = false;
+		for (int j=0;j<n;j++) {
+			if (gone[j] || !isConst(j)) continue;
+			int k = next(j);
+			if (k==n || isTarget[k]) continue;
+			int c = value(j);
+			byte op = op(k);
+			if ((op==IMUL && c==1) || ((op==IADD || op==ISUB) && c==0)) {
+				gone[j]=true;
+				gone[k]=true;
+				changed=true;
+			} else if (op==IMUL && c>1 && (c & (c-1))==0) {
+				ins[j]=push(Integer.numberOfTrailingZeros(c));
+				ins[k]=new byte[] {ISHL};
+				changed=true;
+			}
+		}
+		return changed;
+	}
+
+	boolean thread() {
+		resolve();
+		boolean changed = false;
+		for (int i=0;i<n;i++) {
+			if (gone[i] || target[i]<0) continue;
+			int t = target[i];
+			for (int hops=0;op(t)==JMP && target[t]!=t && hops<n;hops++) t=target[t];
+			if (t!=target[i]) {
+				target[i]=t;
+				changed=true;
+			}
+			if (op(i)==JMP && target[i]==next(i)) {
+				gone[i]=true;
+				changed=true;
+			}
+		}
+		return changed;
+	}
+
+	//whether the next instruction can run after this one
+	static boolean fallsThrough(byte op) {
+		switch (op) {
+			case JMP: case RETURNV: case IRETURN: case ARETURN: case LRETURN: case DRETURN:
+			case (byte)0xBF:	//athrow
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	boolean unreachable() {
+		resolve();
+		boolean[] seen = new boolean[n+1];
+		int[] work = new int[2*n+2];
+		int w = 0;
+		work[w++]=next(-1);
+		while (w>0) {
+			int i = work[--w];
+			if (i==n || seen[i]) continue;
+			seen[i]=true;
+			if (fallsThrough(op(i))) work[w++]=next(i);
+			if (target[i]>=0) work[w++]=target[i];
+		}
+		boolean changed = false;
+		for (int i=0;i<n;i++) {
+			if (!gone[i] && !seen[i]) {
+				gone[i]=true;
+				changed=true;
+			}
+		}
+		return changed;
+	}
+
+	//the local an instruction loads, stores or increments, or -1
+	int local(int i) {
+		byte[] b = ins[i];
+		byte op = b[0];
+		if (op==WIDE) return (b[2] & 0xff) << 8 | (b[3] & 0xff);
+		if (op>=ILOAD_0 && op<=ILOAD_3) return op-ILOAD_0;
+		if (op>=ALOAD_0 && op<=ALOAD_3) return op-ALOAD_0;
+		if (op>=LLOAD_0 && op<=LLOAD_3) return op-LLOAD_0;
+		if (op>=DLOAD_0 && op<=DLOAD_3) return op-DLOAD_0;
+		if (op>=ISTORE_0 && op<=ISTORE_3) return op-ISTORE_0;
+		if (op>=ASTORE_0 && op<=ASTORE_3) return op-ASTORE_0;
+		if (op>=LSTORE_0 && op<=LSTORE_3) return op-LSTORE_0;
+		if (op>=DSTORE_0 && op<=DSTORE_3) return op-DSTORE_0;
+		switch (op) {
+			case ILOAD: case ALOAD: case LLOAD: case DLOAD:
+			case ISTORE: case ASTORE: case LSTORE: case DSTORE: case IINC:
+				return b[1] & 0xff;
+			default:
+				return -1;
+		}
+	}
+
+	static boolean isLoad(byte op) {
+		return (op>=ILOAD_0 && op<=ILOAD_3) || (op>=ALOAD_0 && op<=ALOAD_3) || op==ILOAD || op==ALOAD;
+	}
+
+	static boolean isLoad2(byte op) {
+		return (op>=LLOAD_0 && op<=LLOAD_3) || (op>=DLOAD_0 && op<=DLOAD_3) || op==LLOAD || op==DLOAD;
+	}
+
+	static boolean isStore(byte op) {
+		return (op>=ISTORE_0 && op<=ISTORE_3) || (op>=ASTORE_0 && op<=ASTORE_3) || op==ISTORE || op==ASTORE;
+	}
+
+	static boolean isStore2(byte op) {
+		return (op>=LSTORE_0 && op<=LSTORE_3) || (op>=DSTORE_0 && op<=DSTORE_3) || op==LSTORE || op==DSTORE;
+	}
+
+	//the locals that are read later, after each instruction.  This goes backwards until it settles
+	BitSet[] liveness() {
+		resolve();
+		BitSet[] in = new BitSet[n+1];
+		BitSet[] out = new BitSet[n];
+		for (int i=0;i<=n;i++) in[i]=new BitSet();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i=n-1;i>=0;i--) {
+				if (gone[i]) continue;
+				BitSet o = new BitSet();
+				if (fallsThrough(op(i))) o.or(in[next(i)]);
+				if (target[i]>=0) o.or(in[target[i]]);
+				out[i]=o;
+				BitSet x = (BitSet)o.clone();
+				byte op = op(i);
+				int l = local(i);
+				if (isStore(op)) x.clear(l);
+				if (isStore2(op)) x.clear(l,l+2);
+				if (isLoad(op) || op==IINC) x.set(l);
+				if (isLoad2(op)) x.set(l,l+2);
+				if (!x.equals(in[i])) {
+					in[i]=x;
+					changed=true;
+				}
+			}
+		}
+		return out;
+	}
+
+	boolean deadStores() {
+		BitSet[] out = liveness();
+		boolean changed = false;
+		for (int i=0;i<n;i++) {
+			if (gone[i]) continue;
+			byte op = op(i);
+			if (isStore(op) && !out[i].get(local(i))) {
+				ins[i]=new byte[] {POP};
+				changed=true;
+			} else if (op==IINC && !out[i].get(local(i))) {
+				gone[i]=true;
+				changed=true;
+			}
+		}
+		return changed;
+	}
+
+	//a push and a POP, or a store and a load of a local that isn't read again, go away together
+	boolean cleanup() {
+		BitSet[] out = liveness();
+		boolean changed = false;
+		for (int i=0;i<n;i++) {
+			if (gone[i]) continue;
+			int j = next(i);
+			if (j==n || isTarget[j]) continue;
+			byte a = op(i);
+			byte b = op(j);
+			if (b==POP && (isConst(i) || isLoad(a) || a==DUP)) {
+				gone[i]=true;
+				gone[j]=true;
+				changed=true;
+			} else if (isStore(a) && isLoad(b) && local(i)==local(j) && !out[j].get(local(j))
+					&& (a==ISTORE || (a>=ISTORE_0 && a<=ISTORE_3)) == (b==ILOAD || (b>=ILOAD_0 && b<=ILOAD_3))) {
+				gone[i]=true;
+				gone[j]=true;
+				changed=true;
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,56 @@
+package lava.math;
+import lava.math.Numero;
+import lava.math.LavaMath;
+import lava.math.Compare;
+
+/**
+* An Accumulator is a register that you can do arithmetic on in place.  Load it with set, run as many
+* operations on it as you want, and then get the answer out.  Nothing is created along the way.
+*
+* Each Engine has one, and it knows the Engine's math mode (LavaMath.LAVA or LavaMath.JVM), so every
+* operation wraps the same way that LavaMath does.
+*/
+public class Accumulator {
+	int acc;
+	int shift;
+
+	public Accumulator(byte mode) {
+		shift = LavaMath.BITS(mode);
+	}
+
+	public void set(int i) {acc=i;}
+	public void set(Numero n) {acc=n.toInt();}
+	public int get() {return acc;}
+	//for code that wants to call LavaMath directly in the same mode
+	public int getShift() {return shift;}
+
+	//this only creates something if the answer is too big for the Numero cache
+	public Numero toNumero() {
+		return Numero.pack(acc);
+	}
+
+	//=====================
+	public void ADD(int i) {acc=LavaMath.ADD(acc,i,shift);}
+	public void SUB(int i) {acc=LavaMath.SUB(acc,i,shift);}
+	public void MUL(int i) {acc=LavaMath.MUL(acc,i,shift);}
+	//these throw ArithmeticException if i is 0
+	public void DIV(int i) {acc=LavaMath.DIV(acc,i,shift);}
+	public void REM(int i) {acc=LavaMath.REM(acc,i,shift);}
+	public void NEG() {acc=LavaMath.NEG(acc,shift);}
+	public void SHL(int i) {acc=LavaMath.SHL(acc,i,shift);}
+	//bring an int that came from somewhere else (like a long) into the range of the math mode
+	public void WRAP() {acc=LavaMath.WRAP(acc,shift);}
+
+	//compare the accumulator to i.  This returns a Compare code (GT, EQ or LT) and doesn't change anything
+	public byte CMP(int i) {
+		return Compare.CMP(acc,i);
+	}
+
+	//=====================
+	public static void main(String[] args) {
+		Accumulator a = new Accumulator(LavaMath.LAVA);
+		a.set(Integer.parseInt(args[0]));
+		a.MUL(Integer.parseInt(args[1]));
+		System.out.println(a.get());
+	}
+}
@@ -16,16 +16,22 @@ public class Compare {
 	//if they are equal return 2
 	//if w1 is less return 4
 	public static byte CMP(Numero w1, Numero w2) {
-		Numero c = LavaMath.SUB(w1,w2);
-		if (LavaMath.GTZ(c)) return (byte)1;
+		int c = w1.toInt()-w2.toInt();
+		if (c==0) return (byte)2;
+		//a positive difference has a sign digit of 0
+		if (LavaMath.SIGN(c)==0) return (byte)1;
 		else {
-			if (LavaMath.EQZ(c)) return (byte)2;
-			else {
-				return (byte)4; //LT
-			}
+			return (byte)4; //LT
 		}
 	}
 
+	//the same thing for plain ints
+	public static byte CMP(int i1, int i2) {
+		if (i1>i2) return GT;
+		else if (i1==i2) return EQ;
+		else return LT;
+	}
+
 	//the TST code is as follows:
 	//	GT 1
 	//	EQ 2
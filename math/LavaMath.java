@@ -1,170 +1,155 @@
 package lava.math;
 import lava.math.Numero;
 
+/**
+* The 11 octal digits of a Numero are packed into one int (see Word), so each of these works on all
+* of the digits at once, SWAR style, instead of looping over them.  The results are bit for bit the same
+* as carrying digit by digit, including the sign digit wrapping around from 3 to 0.
+*/
 public class LavaMath {
+	//bit 2 of every 3-bit digit: 2,5,8..29
+	final static int TOPBITS = 0x24924924;
 
+	//the sign digit is the top 2 bits
+	static int SIGN(int x) {
+		return x>>>30;
+	}
+
+	//adding the digits with carries is just adding the ints
 	public static Numero ADD(Numero w1, Numero w2) {
-		Numero w3 = w1.clone();
-		for (int i=0;i<11;i++) {
-			w3.ADD(10-i,w2.getOct(10-i) );
-		}
-		w3.charm();
-		return w3;
+		return Numero.pack(w1.toInt()+w2.toInt());
 	}
 
 	//subtract
 	public static Numero SUB(Numero w1, Numero w2) {
-		Numero w4 = Numero.NEG(w2);
-		return ADD(w1,w4);
+		return Numero.pack(w1.toInt()-w2.toInt());
 	}
 
 	//same as LSH 1
 	public static Numero MUL2(Numero w) {
 		//this doesn't change w
-		return ADD(w,w);
+		return Numero.pack(w.toInt()<<1);
 	}
 
-	//same as RSH 1
+	//same as RSH 1, almost.
+	//every digit is halved, and when the halved digit is odd (that is, bit 1 of the original digit)
+	//4 is passed down to the digit on the right.  The halves stay out of bit 2 of each digit
+	//and the 4s only go into bit 2, so they can be OR'd together without any carries
 	public static Numero DIV2(Numero w) {
-		Numero w3 = w.clone();
-		for (int i=0;i<11;i++) {
-			w3.DIV2(10-i);
-		}
-		w3.charm();
-		return w3;
+		int x = w.toInt();
+		return Numero.pack( ((x>>>1) & ~TOPBITS) | ((x>>>2) & TOPBITS) );
 	}
 
+	//this looks at the sign digit
 	public static boolean ODD(Numero w) {
-		return ((w.getOct(0) % 2) == 1);
+		return (SIGN(w.toInt()) & 1) == 1;
 	}
 
-	//you would think it would be easy to determine
-	//if a Numero is zero but you have to check every byte
+	//now it is easy to determine if a Numero is zero
 	public static boolean EQZ(Numero w) {
-		return w.equals(Numero.NIL);
+		return w.toInt()==0;
 	}
 
 	public static boolean GTZ(Numero w) {
 		//note, a sign of 49 (1) is greater than zero
 		//as well, but it is out of range for a number
-		return (!EQZ(w) && (w.sign()==48));
+		int x = w.toInt();
+		return (x!=0 && SIGN(x)==0);
 	}
 
-	//the 51 means the sign is 3
+	//the sign is 3
 	public static boolean LTZ(Numero w) {
-		return (w.sign()==51);
+		return SIGN(w.toInt())==3;
 	}
 
 	public static boolean LT(Numero w1, Numero w2) {
-		Numero w3 = SUB(w1,w2);
-		return LTZ(w3);
+		return SIGN(w1.toInt()-w2.toInt())==3;
 	}
 
 	public static boolean LTE(Numero w1, Numero w2) {
-		if (w1.equals(w2)) return true;
+		if (w1.toInt()==w2.toInt()) return true;
 		else { return LT(w1,w2);}
 	}
 
 	//its easier to find GTE because we don't have to check for zero
 	public static boolean GTE(Numero w1, Numero w2) {
-		Numero w3 = SUB(w1,w2);
-		return w3.sign()==48;
+		return SIGN(w1.toInt()-w2.toInt())==0;
 	}
 
 	public static boolean GT(Numero w1, Numero w2) {
-		Numero w3 = SUB(w1,w2);
-		return GTZ(w3);
+		int x = w1.toInt()-w2.toInt();
+		return (x!=0 && SIGN(x)==0);
+	}
+
+	//======================================
+	//the native int backend.  These work on plain ints and don't make a Numero.
+	//The mode says where a result wraps around:
+	//	LAVA wraps at 27 bits plus the sign, so a result always stays in the range of a Numero
+	//	JVM wraps at 32 bits, like a real int
+	//Each Engine picks a mode and turns it into a shift with BITS, so the wrap is just 2 shifts.
+	public final static byte LAVA = (byte)0;
+	public final static byte JVM = (byte)1;
+
+	//how many of the top bits are thrown away in this mode
+	public static int BITS(byte mode) {
+		if (mode==JVM) return 0;
+		else return 4;
+	}
+
+	//sign extend from the highest bit that is kept
+	public static int WRAP(int x,int shift) {
+		return (x<<shift)>>shift;
+	}
+
+	public static int ADD(int a,int b,int shift) {
+		return WRAP(a+b,shift);
 	}
 
-	//multiply using russian peasant method
-	//see https://www.geeksforgeeks.org/
-	//	russian-peasant-multiply-two-numbers-using-bitwise-operators/
+	public static int SUB(int a,int b,int shift) {
+		return WRAP(a-b,shift);
+	}
+
+	public static int NEG(int a,int shift) {
+		return WRAP(-a,shift);
+	}
+
+	//like the JVM, only the low 5 bits of the shift count are used
+	public static int SHL(int a,int n,int shift) {
+		return WRAP(a<<n,shift);
+	}
+
+	//the low bits of a product are the same whether or not it overflowed, so this wraps correctly
+	public static int MUL(int a,int b,int shift) {
+		return WRAP(a*b,shift);
+	}
+
+	//truncates toward zero.  MIN / -1 is the only quotient that can overflow, and it wraps to MIN
+	public static int DIV(int a,int b,int shift) {
+		if (b==0) throw new ArithmeticException("/ by zero");
+		return WRAP(a/b,shift);
+	}
+
+	//the remainder has the sign of the dividend, a == (a/b)*b + a%b
+	public static int REM(int a,int b,int shift) {
+		if (b==0) throw new ArithmeticException("/ by zero");
+		return WRAP(a%b,shift);
+	}
+
+	//multiply. this wraps at 32 bits, like ADD
 	public static Numero MUL(Numero a,Numero b) {
-		Numero result = new Numero(0);
-		//while 'b' is greater than 0
-		while (GTZ(b)) {
-			//If 'b' is odd, add 'a' to 'res'
-			if (ODD(b)) {
-				result = ADD(result,a);
-			}
-			//Double 'a' and halve 'b'
-			a = MUL2(a);
-			b = DIV2(b);
-		}
-		return result;
+		return Numero.pack(a.toInt()*b.toInt());
 	}
 
 	//divide Dividend by Divisor and return the quotient and remainder
+	//like the JVM, the quotient is truncated toward zero and the remainder has the sign of the dividend
 	public static Numero[] DIV(Numero dividend, Numero divisor) {
+		int d = divisor.toInt();
+		if (d==0) throw new ArithmeticException("/ by zero");
 		Numero[] qr = new Numero[2];
-		qr[0]= new Numero(0);		//this is the quotient
-		qr[1]= new Numero(0);		//this is the remainder;
-
-		//------------------------------
-		//check input
-		//case 0, if either is zero, return zero
-		if (EQZ(dividend) || EQZ(divisor)) return qr;
-
-		//case 1, if dividend equals divisor then quotient is 1
-		if (dividend.equals(divisor)) {
-			qr[0]= new Numero(1);
-			return qr;
-		}
-		//case 2, if dividend is less than divisor
-		if (LT(dividend,divisor)) {
-			qr[0] = new Numero(0);
-			qr[1] = dividend;
-			return qr;
-		}
-		//case 3, don't allow negative numbers
-		//I know computers can do it but I don't like it
-		if (LTZ(dividend) || LTZ(divisor)) throw new IllegalArgumentException("trying to divide by negative number");
-
-		//case 5, if divisor is 1, return dividend as quotient, with no remainder
-		if (divisor.equals(Numero.N1)) {
-			qr[0]=dividend;
-			return qr;
-		}
-		//case 6, if divisor is 2, use special algorithm
-		if (divisor.equals(Numero.N2)) {
-			qr[0]=DIV2(dividend);
-			//remainder might be 1
-			int r = (dividend.getOct(10) - 48) % 2;
-			if (r==1) {qr[1] = new Numero(1);}
-			return qr;
-		}
-		//------------------------------
-		Numero tempDivisor = divisor.clone();
-		Numero tempDivisor2 = divisor.clone();
-		Numero tempQuotient = new Numero(1);
-		Numero tempQuotient2 = new Numero(1);
-
-		//keep doubling until this breaks
-    	while (LTE(tempDivisor,dividend)) {
-    	    tempDivisor = MUL2(tempDivisor);
-    	    tempQuotient = MUL2(tempQuotient);
-    	    if (LTE(tempDivisor,dividend)) {
-				//freeze for rollback
-				tempDivisor2 = tempDivisor.clone();
-				tempQuotient2 = tempQuotient.clone();
-			}
-    	}
-    	//now that it broke, reverse it one step
-    	if (LT(dividend,tempDivisor)) {
-			//rollback
-			tempDivisor = tempDivisor2;
-			tempQuotient = tempQuotient2;
-		}
-		//do it again recursively
-		Numero[] qr2 = DIV( SUB(dividend,tempDivisor), divisor);
-		tempQuotient = ADD(tempQuotient,qr2[0]);
-		qr[0] = tempQuotient;
-		if (GTZ(qr2[1])) {	//remainder
-			qr[1] = qr2[1];
-		}
-
+		qr[0]= Numero.pack(dividend.toInt() / d);		//this is the quotient
+		qr[1]= Numero.pack(dividend.toInt() % d);		//this is the remainder;
 		return qr;
-    }
+	}
 
 	//======================================
 	public static void main(String[] args) {
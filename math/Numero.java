@@ -4,85 +4,48 @@ import lava.type.Word;
 /**
 * A Numero (I can't use Number because it conflicts with java.lang.Number) is a number from
 * -134,217,728 to 134,217,727.
+*
+* A Numero can't be changed once it is made.  Arithmetic always gives you a new one.  Use valueOf
+* instead of new, because the small numbers (CACHE_LOW..CACHE_HIGH) are made ahead of time and shared.
 */
 public class Numero extends Word {
 	public final static int MIN = (int)(0 - Math.pow(2,27));	//-134217728
-	public final static Numero NIL=new Numero(0);
-	public final static Numero N1=new Numero(1);
-	public final static Numero N2=new Numero(2);
+	public final static int CACHE_LOW = -1024;
+	public final static int CACHE_HIGH = 65535;
+	private final static Numero[] CACHE = new Numero[CACHE_HIGH-CACHE_LOW+1];
+	static {
+		for (int i=0;i<CACHE.length;i++) {
+			CACHE[i]=new Numero(i+CACHE_LOW);
+		}
+	}
+	public final static Numero NIL=valueOf(0);
+	public final static Numero N1=valueOf(1);
+	public final static Numero N2=valueOf(2);
 
 	public Numero(int i) {
 		super();
 		if (i<MIN || i>MAX) {
 			throw new IllegalArgumentException(i+" is out of range");
 		}
-		for (int j=0;j<11;j++) {
-			if (i==0) break;
-			setOct( (10-j), (byte)(48 + (i % 8)) );
-			i = i / 8;
-		}
-		charm();
+		//the packed digits of a number are its two's complement value
+		setInt(i);
 	}
 
-	//i added while loops so this will work with mul
-	public void charm() {
-		for (int j=0;j<10;j++) {
-			if ( getOct(10-j) < 48) {
-				//borrow
-				setOct( (10-j), (byte)(getOct(10-j)+8) );
-				setOct( (9-j),  (byte)(getOct(9-j)-1) );
-			} else if ( getOct(10-j) > 55) {
-				while ( getOct(10-j) > 55) {
-					//carry
-					setOct( (10-j), (byte)(getOct(10-j)-8) );
-					setOct( (9-j),  (byte)(getOct(9-j)+1)  );
-				}
-			}
-		}
-		//fix the sign
-		if ( getOct(0) <48) {
-			setOct(0, (byte)(getOct(0)+4) );
-		} else if ( getOct(0)>51) {
-			setOct(0, (byte)(getOct(0)-4) );
+	//use this instead of new Numero(i)
+	public static Numero valueOf(int i) {
+		if (i>=CACHE_LOW && i<=CACHE_HIGH) {
+			return CACHE[i-CACHE_LOW];
+		} else {
+			return new Numero(i);
 		}
 	}
 
 	public byte getOct(int i) {return super.getOct(i);}
-	public void setOct(int i,byte b) { super.setOct(i,b);}
-
-	//call charm afterward
-	public void INC() { super.INC(); }
-
-	public void DEC() { super.DEC(); }
 
 	//@overwrite
+	//the packed digits are already in two's complement, so negative numbers come out right
 	public int toInt() {
-		int out = 0;
-		int place = 1;
-
-		//positive number
-		if ( sign() < 50) {
-			for (int j=0;j<10;j++) {
-				out = out + (place * (getOct(10-j)-48));
-				place=place * 8;
-			}
-			if ( sign()==49) {
-				out = out + place;
-			}
-		} else {
-			//it's a negative number
-			Numero w2 = NEG(this);
-			for (int j=0;j<10;j++) {
-				out = out + (place * (w2.getOct(10-j)-48));
-				place=place * 8;
-			}
-			if (w2.sign()==49) {
-				out = out + place;
-			}
-			//now change sign
-			out = 0 - out;
-		}
-		return out;
+		return getInt();
 	}
 
 	//=========================================
@@ -98,76 +61,28 @@ public class Numero extends Word {
 		}
 	}
 
-	//this is here because it is needed by toInt()
+	//two's complement.  NOT flips every digit (and the sign, 0 to 3 and vice versa), then add 1
 	public static Numero NEG(Numero w1) {
-		Numero w2 = new Numero(0);
-		for (int j=0;j<10;j++) {
-			w2.setOct( (10-j), NOT(w1.getOct(10-j)) );
-		}
-		//change the sign
-		//change 48 to 51 and vice versa
-		w2.setOct(0, (byte)(51-w1.getOct(0)+48));
-
-		//add 1 for two's complement
-		w2.INC();
-
-		//charm
-		w2.charm();
-
-		return w2;
+		return pack(~w1.getInt()+1);
 	}
 
 	//====================================
-	//similar to INC
-	//	pos must be in the range 0..10
-	//	b1 must be in the range 48..55
-	//call charm afterwards
-	//start at the right
-	public void ADD(int pos,byte b1) {
-		if (pos<0 || pos>10) {
-			throw new IllegalArgumentException(pos+" is out of range");
-		}
-		if (b1 <48 || b1 > 55) {
-			throw new IllegalArgumentException(b1+" is out of range");
-		}
-		int a = (getOct(pos)-48) + (b1-48);
-		//System.out.println("Word.ADD ("+pos+","+b1+") : "+val[pos]+", "+a);
-		if (a>7) {
-			setOct(pos, (byte)(48+(a-8)));
-			//System.out.println("setting val["+pos+"] to "+val[pos]);
-			//carry
-			setOct( (pos-1), (byte)(getOct(pos-1)+1) );
-			//System.out.println("setting val["+(pos-1)+"] to "+val[pos-1]);
-		} else {
-			setOct(pos, (byte)(48+a));
-		}
-	}
-
-	//this only changes one byte
-	//start at the right
-	public void DIV2(int pos) {
-		if (pos<0 || pos>10) {
-			throw new IllegalArgumentException(pos+" is out of range");
-		}
-		int a = ( getOct(pos)-48) / 2;
-		if (pos == 10) {
-			setOct(pos,(byte)(48+a));
-		} else {
-			setOct(pos,(byte)(48+a));
-			int b = (getOct(pos)-48) % 2;
-			if (b==1) {
-				//add 4 to the next position to the right
-				setOct( (pos+1), (byte)(getOct(pos+1)+4));
-			}
+	//for LavaMath, which works on all 11 digits at once.
+	//this wraps a packed int without checking the range, because a sum can overflow the range
+	//just like it did when we carried digit by digit.  An Engine in JVM mode also uses this,
+	//because its numbers can be any int
+	public static Numero pack(int i) {
+		if (i>=CACHE_LOW && i<=CACHE_HIGH) {
+			return CACHE[i-CACHE_LOW];
 		}
+		Numero w2 = new Numero(0);
+		w2.setInt(i);
+		return w2;
 	}
 
+	//a Numero can't change so there is no need to copy it
 	public Numero clone() {
-		Numero w2 = new Numero(0);
-		for (int j=0;j<11;j++) {
-			w2.setOct(j,getOct(j));
-		}
-		return w2;
+		return this;
 	}
 
 	//=====================
@@ -1,5 +1,6 @@
 package lava.storage;
 import lava.type.*;
+import java.io.*;
 
 /**
 * There are actually 2 heaps, the BHeap (bytes) and AHeap (arrays) (int), but I provide a unified view.
@@ -12,6 +13,9 @@ import lava.type.*;
 * array of size 64.
 *
 * The only limit to the size of the heap is for the index, so this could go up to 2^27, about 134 million.
+*
+* References can be passed in either as a Word or as the packed int of a Word.  The int versions don't
+* create anything, so use them on the hot paths.
 */
 public class Heap {
 
@@ -47,28 +51,169 @@ public class Heap {
 		return new Word(type,addr);
 	}
 
+	//---------------------------------------------------
+	//interned strings.  This is an open addressing table of string refs (packed ints), hashed by
+	//their type and bytes.  0 is an empty slot.
+	int[] strings = new int[64];
+	int nstrings = 0;
+
+	/**
+	* intern returns the ref of a string that has already been stored with the same type and bytes,
+	* or stores it if there isn't one.  Use this for names and constants, which are the same over and over.
+	*/
+	public int intern(byte type,byte[] s) {
+		if (type==0) type=Word.ASCII;
+		int mask = strings.length-1;
+		int i = hashAscii(type,s) & mask;
+		while (strings[i]!=0) {
+			if (sameAscii(strings[i],type,s)) return strings[i];
+			i = (i+1) & mask;
+		}
+		int r = storeAscii(type,s).toInt();
+		strings[i]=r;
+		nstrings++;
+		if (nstrings*2 > strings.length) growStrings();
+		return r;
+	}
+
+	static int hashAscii(byte type,byte[] s) {
+		return hashAscii(type,s,0,s.length);
+	}
+
+	static int hashAscii(byte type,byte[] s,int off,int len) {
+		int h = type;
+		for (int i=0;i<len;i++) {
+			h = 31*h + s[off+i];
+		}
+		return h ^ (h>>>16);
+	}
+
+	//compare the stored string at r with the bytes, without copying it out
+	boolean sameAscii(int r,byte type,byte[] s) {
+		return sameAscii(r,type,s,0,s.length);
+	}
+
+	boolean sameAscii(int r,byte type,byte[] s,int off,int len) {
+		if (Word.type(r)!=type) return false;
+		int x = Word.index(r);
+		if ((bheap[x] & 0xff)!=len) return false;
+		for (int i=0;i<len;i++) {
+			if (bheap[x+1+i]!=s[off+i]) return false;
+		}
+		return true;
+	}
+
+	//---------------------------------------------------
+	//building a string in place, for CONCAT.  startAscii leaves room for the length, the appends write
+	//the bytes right after it and endAscii finishes it.  Nothing else can be stored in between
+	public int startAscii() {
+		return bptr++;
+	}
+
+	//copy the bytes of the string at r
+	public void appendAscii(int r) {
+		int x = Word.index(r);
+		int len = bheap[x] & 0xff;
+		System.arraycopy(bheap,x+1,bheap,bptr,len);
+		bptr=bptr+len;
+	}
+
+	//write the digits of v, without making a String
+	public void appendInt(int v) {
+		long n = v;
+		if (n<0) {
+			bheap[bptr++]='-';
+			n=-n;
+		}
+		int digits = 1;
+		for (long k=n;k>=10;k=k/10) digits++;
+		for (int i=digits-1;i>=0;i--) {
+			bheap[bptr+i]=(byte)('0'+n%10);
+			n=n/10;
+		}
+		bptr=bptr+digits;
+	}
+
+	//finish the string that starts at start.  If the same string is already interned, this one is
+	//dropped and that one is returned, like intern
+	public int endAscii(int start) {
+		int len = bptr-start-1;
+		if (len>255) {
+			bptr=start;
+			throw new IllegalArgumentException("String is too long "+len);
+		}
+		int mask = strings.length-1;
+		int i = hashAscii(Word.ASCII,bheap,start+1,len) & mask;
+		while (strings[i]!=0) {
+			if (sameAscii(strings[i],Word.ASCII,bheap,start+1,len)) {
+				bptr=start;
+				return strings[i];
+			}
+			i = (i+1) & mask;
+		}
+		bheap[start]=(byte)len;
+		bheap[bptr++]=(byte)0;
+		int r = Word.ref(Word.ASCII,start);
+		strings[i]=r;
+		nstrings++;
+		if (nstrings*2 > strings.length) growStrings();
+		return r;
+	}
+
+	void growStrings() {
+		int[] old = strings;
+		strings = new int[old.length*2];
+		int mask = strings.length-1;
+		for (int j=0;j<old.length;j++) {
+			int r = old[j];
+			if (r==0) continue;
+			int i = hashAscii(Word.type(r),loadAscii(r)) & mask;
+			while (strings[i]!=0) i = (i+1) & mask;
+			strings[i]=r;
+		}
+	}
+
 	//we could check the type to make sure it is a string
 	public byte[] loadAscii(Word r) {
-		int alen = bheap[r.index()];
+		return loadAscii(r.toInt());
+	}
+
+	public byte[] loadAscii(int r) {
+		int x = Word.index(r);
+		int alen = bheap[x] & 0xff;
 		byte[] a = new byte[alen];
-		System.arraycopy(bheap,r.index()+1,a,0,alen);
+		System.arraycopy(bheap,x+1,a,0,alen);
 		return a;
 	}
 
 	//---------------------------------------------------
-	//store method.  The only difference from a storage perspective is that this has an additional byte for the number
-	//of params
+	//store method.  The only difference from a storage perspective is that this has additional bytes for the number
+	//of params, the max_stack and max_locals from the Code attribute, the size of what it returns and the flags
+	//the code bytes start at mref+CODE
+	public static final int CODE = 6;
+	//the flags.  This is the same bit as in the class file
+	public static final int ACC_STATIC = 0x8;
 
 	//store a method
 	//255 may be too short but I will deal with that later
-	public Word storeMethod(int params,byte[] m) {
+	public Word storeMethod(int params,int maxStack,int maxLocals,int returns,int flags,byte[] m) {
 		if (m==null || m.length<1) throw new IllegalArgumentException("invalid method ");
 		if (m.length>255)  throw new IllegalArgumentException("method is too long "+m.length);
+		if (maxStack>255)  throw new IllegalArgumentException("max_stack is too big "+maxStack);
+		if (maxLocals>255)  throw new IllegalArgumentException("max_locals is too big "+maxLocals);
 		int mlen = m.length;
 		int addr = bptr;
 		bheap[bptr++]=(byte)mlen;
 		//add the params
 		bheap[bptr++]=(byte)params;
+		//and the max stack, so the frame knows how big to make the operand stack
+		bheap[bptr++]=(byte)maxStack;
+		//and the max locals
+		bheap[bptr++]=(byte)maxLocals;
+		//and the number of slots it returns: 0 for void, 2 for a long or double, otherwise 1
+		bheap[bptr++]=(byte)returns;
+		//and whether it is static, since the jit can only compile the static ones
+		bheap[bptr++]=(byte)flags;
 		System.arraycopy(m,0,bheap,bptr,mlen);
 		bptr=bptr+mlen;
 		//now add a null
@@ -78,13 +223,17 @@ public class Heap {
 
 	//we could check the type to make sure it is a method
 	public byte[] loadMethod(Word r) {
-		int alen = bheap[r.index()];
+		return loadMethod(r.toInt());
+	}
+
+	public byte[] loadMethod(int r) {
+		int x = Word.index(r);
+		int alen = bheap[x] & 0xff;
 		byte[] a = new byte[alen];
-		System.arraycopy(bheap,r.index()+2,a,0,alen);
+		System.arraycopy(bheap,x+CODE,a,0,alen);
 		return a;
 	}
 
-	//the code bytes start at mref+2
 	public byte readByte(int x) {
 		if (x>=abase) {
 			System.out.println("[Heap.readByte] the index is "+x+"; this doesn't look right");
@@ -96,9 +245,34 @@ public class Heap {
 
 	//mref+0 has the length
 	//mref+1 has the params
+	//mref+2 has the max stack
+	//mref+3 has the max locals
+	//mref+4 has the return slots
+	//mref+5 has the flags
 	public byte params(Word mref) {
-		return bheap[mref.index()+1];
+		return params(mref.toInt());
+	}
+
+	public byte params(int mref) {
+		return bheap[Word.index(mref)+1];
+	}
+
+	public int maxStack(int mref) {
+		return bheap[Word.index(mref)+2] & 0xff;
+	}
+
+	public int maxLocals(int mref) {
+		return bheap[Word.index(mref)+3] & 0xff;
+	}
+
+	public int returns(int mref) {
+		return bheap[Word.index(mref)+4];
 	}
+
+	public boolean isStatic(int mref) {
+		return (bheap[Word.index(mref)+5] & ACC_STATIC)!=0;
+	}
+
 	//=======================
 	/**
 	* the max length is arbitrary, and we could make this longer.  If so also increase heap size
@@ -118,18 +292,39 @@ public class Heap {
 		return new Word(type,addr);
 	}
 
+	//a long or double array has 2 ints for each element, high int first.
+	//the length is still the number of elements
+	public Word createWideArray(int length) {
+		if (length<0 || length>511) {throw new IllegalArgumentException("array is too long "+length);}
+		Word aref = createArray(Word.ARRAY,length*2);
+		aheap[aref.index()-abase]=length;
+		return aref;
+	}
+
 	public int getArrayLength(Word aref) {
-		return aheap[aref.index()-abase];
+		return getArrayLength(aref.toInt());
+	}
+
+	public int getArrayLength(int aref) {
+		return aheap[Word.index(aref)-abase];
 	}
 
 	public void arrayStore(Word aref, int index,int value) {
+		arrayStore(aref.toInt(),index,value);
+	}
+
+	public void arrayStore(int aref, int index,int value) {
 		//log("Heap.arrayStore: storing "+value+" in index "+index);
-		aheap[aref.index()-abase+index+1]=value;
+		aheap[Word.index(aref)-abase+index+1]=value;
 	}
 
 	public int arrayLoad(Word aref, int index) {
-		int actual=aref.index()-abase+index+1;
-		//log("loading int from heap at "+aref.toString()+" with index "+index+" (actual "+actual+")");
+		return arrayLoad(aref.toInt(),index);
+	}
+
+	public int arrayLoad(int aref, int index) {
+		int actual=Word.index(aref)-abase+index+1;
+		//log("loading int from heap at "+Word.toString(aref)+" with index "+index+" (actual "+actual+")");
 		return aheap[actual];
 	}
 
@@ -143,6 +338,33 @@ public class Heap {
 		}
 	}
 
+	//=======================
+	//an image of the heap, for the AOT bundle.  Everything in here is a ref into these arrays, so writing
+	//out the used part of each one and reading it back in gives the same heap, with the same refs
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(bptr);
+		out.write(bheap,0,bptr);
+		out.writeInt(aptr);
+		for (int i=0;i<aptr-abase;i++) out.writeInt(aheap[i]);
+		out.writeInt(strings.length);
+		for (int i=0;i<strings.length;i++) out.writeInt(strings[i]);
+		out.writeInt(nstrings);
+	}
+
+	//this replaces whatever was in the heap
+	public void restore(DataInputStream in) throws IOException {
+		bptr = in.readInt();
+		bheap = new byte[Math.max(bheap.length,bptr)];
+		in.readFully(bheap,0,bptr);
+		aptr = in.readInt();
+		aheap = new int[Math.max(aheap.length,aptr-abase+1)];
+		for (int i=0;i<aptr-abase;i++) aheap[i]=in.readInt();
+		strings = new int[in.readInt()];
+		for (int i=0;i<strings.length;i++) strings[i]=in.readInt();
+		nstrings = in.readInt();
+		if (debug) log("restored a heap of "+bptr+" bytes and "+(aptr-abase)+" ints");
+	}
+
 	//=======================
 	public static void main(String[] args) {
 		Heap h = new Heap(true);
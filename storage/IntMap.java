@@ -0,0 +1,104 @@
+package lava.storage;
+
+/**
+* IntMap maps an int to an int.  It is meant for references (the packed int of a Word), so there is
+* no boxing and no synchronization like there is with a Hashtable.
+*
+* This uses open addressing.  The keys are in one array and the values in another, and a collision
+* just moves on to the next slot.  The size is always a power of 2 and it doubles when it is half full.
+*
+* 0 can't be used as a key, because 0 marks an empty slot.  That is ok because 0 isn't used as a
+* reference.  get returns 0 if the key isn't there.
+*/
+public class IntMap {
+	int[] keys;
+	int[] vals;
+	int count;
+
+	public IntMap() {
+		this(16);
+	}
+
+	//size must be a power of 2
+	public IntMap(int size) {
+		keys = new int[size];
+		vals = new int[size];
+	}
+
+	//scramble the bits, because refs that are close together would otherwise land in a clump
+	static int hash(int k) {
+		int h = k * 0x9E3779B9;
+		return h ^ (h>>>16);
+	}
+
+	public int get(int key) {
+		int mask = keys.length-1;
+		int i = hash(key) & mask;
+		while (keys[i]!=0) {
+			if (keys[i]==key) return vals[i];
+			i = (i+1) & mask;
+		}
+		return 0;
+	}
+
+	public boolean containsKey(int key) {
+		int mask = keys.length-1;
+		int i = hash(key) & mask;
+		while (keys[i]!=0) {
+			if (keys[i]==key) return true;
+			i = (i+1) & mask;
+		}
+		return false;
+	}
+
+	public void put(int key,int val) {
+		if (key==0) throw new IllegalArgumentException("0 can't be used as a key");
+		int mask = keys.length-1;
+		int i = hash(key) & mask;
+		while (keys[i]!=0) {
+			if (keys[i]==key) {
+				vals[i]=val;
+				return;
+			}
+			i = (i+1) & mask;
+		}
+		keys[i]=key;
+		vals[i]=val;
+		count++;
+		if (count*2 > keys.length) grow();
+	}
+
+	public int size() {return count;}
+
+	//the keys that are in the map, in no particular order
+	public int[] keys() {
+		int[] a = new int[count];
+		int n = 0;
+		for (int i=0;i<keys.length;i++) {
+			if (keys[i]!=0) a[n++]=keys[i];
+		}
+		return a;
+	}
+
+	void grow() {
+		int[] oldKeys = keys;
+		int[] oldVals = vals;
+		keys = new int[oldKeys.length*2];
+		vals = new int[oldVals.length*2];
+		count = 0;
+		for (int i=0;i<oldKeys.length;i++) {
+			if (oldKeys[i]!=0) put(oldKeys[i],oldVals[i]);
+		}
+	}
+
+	//=======================
+	public static void main(String[] args) {
+		IntMap m = new IntMap();
+		int n = Integer.parseInt(args[0]);
+		for (int i=1;i<=n;i++) m.put(i*7,i);
+		for (int i=1;i<=n;i++) {
+			if (m.get(i*7)!=i) System.out.println("wrong value for "+(i*7));
+		}
+		System.out.println(m.size()+" entries, "+m.keys.length+" slots, get(3)="+m.get(3));
+	}
+}
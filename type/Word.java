@@ -8,9 +8,15 @@ import lava.math.Numero;
 * So this will have casting methods. It is preferable to use sub-types whenever possible.  Only use Word
 * when you don't know what the subtype is.
 *
-* The "sign" byte is in val[0].  This actually holds values from 0..3 (48 to 51), where 0 is positive
-* and 3 is negative.  A Reference doesn't use the sign.
-* The "type" byte is in val[1]. This holds values from 0..7 (48 to 55).
+* The 11 digits are packed into a single int.  The "sign" digit is the top 2 bits.  This holds values
+* from 0..3 (48 to 51), where 0 is positive and 3 is negative.  A Reference doesn't use the sign.
+* The "type" digit is the next 3 bits. This holds values from 0..7 (48 to 55).
+* The remaining 27 bits are the index (or the low part of a number).
+*
+* Because the sign digit only goes up to 3, the packed int of a number is exactly its two's complement
+* value, and the packed int of a reference is type*INT27+index.  The digits, the sign and the type
+* are all derived from the int, so the Engine, Frame and Heap can pass the int around by itself.
+* The static methods below work directly on packed ints.
 *
 * This is not meant to hold numbers.  Use Numero for that.
 */
@@ -37,11 +43,11 @@ public class Word {
 	public final static int INT27 = (int)Math.pow(2,27);		//134217728
 	public final static int MAX30 = ((int)Math.pow(2,30)-1);	//1_073_741_823
 
-	private byte[] val;
+	private int val;
 
 	//for use only by Numero
 	protected Word() {
-		init();
+		val=0;
 	}
 
 	/**
@@ -52,8 +58,7 @@ public class Word {
 		if (i<0 || i> MAX30) {
 			throw new IllegalArgumentException(i+" is out of range");
 		}
-		init();
-		intToOct(i);
+		val=i;
 	}
 
 	/**
@@ -67,91 +72,73 @@ public class Word {
 		if (type <49 || type>54) {
 			throw new IllegalArgumentException("type "+type+" is out of range");
 		}
-		init();
-		intToOct(i);
-		val[1]=type;
+		val=ref(type,i);
 	}
 
-	private void init() {
-		val = new byte[11];
-		for (int i=0;i<11;i++) {
-			val[i]=ZERO;
-		}
-	}
-
-	//this doesn't touch val[0], the sign byte
-	private void intToOct(int i) {
-		for (int j=0;j<10;j++) {
-			if (i==0) break;
-			val[10-j] = (byte)(48 + (i % 8));
-			i = i / 8;
-		}
+	//the digit in position i is 3 bits wide, except for the sign which is the top 2 bits
+	private static int shift(int i) {
+		return 3*(10-i);
 	}
 
 	//to be used only by numero
 	protected byte getOct(int i) {
 		if (i<0 || i>10) {
 			throw new IllegalArgumentException(i+" is out of range 0..11");
+		} else if (i==0) {
+			return (byte)(48 + (val>>>30));
 		} else {
-			return val[i];
+			return (byte)(48 + ((val>>>shift(i)) & 7));
 		}
 	}
 
-	//to be used only by Numero
-	//a val can temporarily have a value from -7 to 49
-	protected void setOct(int i,byte b) {
-		if (i<0 || i>10) {
-			throw new IllegalArgumentException(i+" is out of range 0..11");
-		}
-		val[i]=b;
+	//to be used only by Numero. These get and set all 11 digits at once
+	//setInt is only for building a new Numero, which can't be changed afterwards
+	protected int getInt() {
+		return val;
+	}
+
+	protected void setInt(int i) {
+		val=i;
 	}
 
 	//returns either 48 for 0, 49 for 1 or 51 for 3
 	//i don't expect to use 50 (for 2)
 	public byte sign() {
-		return getOct(0);
+		return sign(val);
 	}
 
 	//type is 48..55.  Subtract 48 to get 0..7
 	public byte type() {
-		return getOct(1);
+		return type(val);
 	}
 
 	public String toString() {
-		return new String(val);
+		return toString(val);
 	}
 
 	//changing from unsigned to signed for negative numbers is quite complicated
 	//and this is done in the subclass for numbers
 	public int toInt() {
-		if (val[0]>49) {
+		if (val<0) {
 			throw new IllegalStateException("cannot provide int representation of negative number");
 		} else {
-			int out = 0;
-			int place = 1;
-			for (int j=0;j<11;j++) {
-				out = out + (place * (val[10-j]-48));
-				place=place * 8;
-			}
-			return out;
+			return val;
 		}
 	}
 
-	//for use only by Numero. It doesn't make sense to increment a reference
-	protected void INC() {val[10]++;}
-	protected void DEC() {val[10]--;}
-
 	public boolean equals(Object o) {
 		if (o==null || !(o instanceof Word)) return false;
 		else {
 			Word w2 = (Word)o;
-			for (int j=0;j<11;j++) {
-				if (val[j]!=w2.val[j]) return false;
-			}
-			return true;
+			return val==w2.val;
 		}
 	}
 
+	//equal Words have the same packed int, so that is the hash
+	public int hashCode() {
+		return val;
+	}
+
 	//this is almost the same as clone
 	//this is necessary because you can't cast a Word to a Numero
 	public Numero toNumero() {
@@ -159,15 +146,38 @@ public class Word {
 			return (Numero)this;
 		} else {
 			Numero n = new Numero(0);
-			for (int j=0;j<11;j++) {
-				n.setOct(j, val[j]);
-			}
+			n.setInt(val);
 			return n;
 		}
 	}
 
 	public int index() {
-		return toInt() % INT27;
+		return index(val);
+	}
+
+	//===========================
+	//these work on the packed int without creating a Word
+
+	//make a reference out of a type (49..54) and an index
+	public static int ref(byte type,int i) {
+		return ((type-48)<<27) | i;
+	}
+
+	public static byte sign(int w) {
+		return (byte)(48 + (w>>>30));
+	}
+
+	public static byte type(int w) {
+		return (byte)(48 + ((w>>>27) & 7));
+	}
+
+	public static int index(int w) {
+		return w % INT27;
+	}
+
+	public static String toString(int w) {
+		String s = Integer.toOctalString(w);
+		return "00000000000".substring(s.length())+s;
 	}
 
 	public static boolean isRef(int i) {